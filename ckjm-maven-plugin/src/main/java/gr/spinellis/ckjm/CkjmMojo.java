@@ -0,0 +1,160 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import org.apache.bcel.Repository;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Calculate the metrics of a module's classes inside the build's JVM
+ * and write them, in the plain output format, to target/ckjm.txt.
+ * Superclasses are resolved through the module's compile class path,
+ * whose jars are parsed once per reactor build.
+ * The analysis options and the BCEL repository are global, so the
+ * analyses of modules built in parallel run one at a time.  The
+ * visitor's trace output is turned off, and the duplicate class and
+ * quarantine reports go to the build log; the standard streams are
+ * left alone, as other modules may be using them.
+ *
+ * @see ReactorRepository
+ */
+@Mojo(name = "metrics", defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+    requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class CkjmMojo extends AbstractMojo {
+    /** Serializes the analyses of the reactor's modules */
+    private static final Object LOCK = new Object();
+
+    /** The directory holding the module's classes */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", readonly = true, required = true)
+    private File classesDirectory;
+
+    /** The module's compile class path */
+    @Parameter(defaultValue = "${project.compileClasspathElements}", readonly = true, required = true)
+    private List<String> classpathElements;
+
+    /** The file receiving the metrics */
+    @Parameter(property = "ckjm.outputFile", defaultValue = "${project.build.directory}/ckjm.txt")
+    private File outputFile;
+
+    /** Comma-separated metrics to compute; all if not set */
+    @Parameter(property = "ckjm.metrics")
+    private String metrics;
+
+    /** Report only public classes */
+    @Parameter(property = "ckjm.onlyPublic", defaultValue = "false")
+    private boolean onlyPublic;
+
+    /** Count couplings to the Java JDK */
+    @Parameter(property = "ckjm.includeJdk", defaultValue = "false")
+    private boolean includeJdk;
+
+    /** Report the dependency cycle of each class after its metrics */
+    @Parameter(property = "ckjm.cycles", defaultValue = "false")
+    private boolean cycles;
+
+    /** The time in milliseconds allowed for visiting a class; 0 for no limit */
+    @Parameter(property = "ckjm.budgetMillis", defaultValue = "0")
+    private long budgetMillis;
+
+    /** The number of bytecode instructions allowed for visiting a class; 0 for no limit */
+    @Parameter(property = "ckjm.budgetInstructions", defaultValue = "0")
+    private long budgetInstructions;
+
+    /** Skip the analysis */
+    @Parameter(property = "ckjm.skip", defaultValue = "false")
+    private boolean skip;
+
+    public void execute() throws MojoExecutionException {
+	if (skip || !classesDirectory.isDirectory()) {
+	    getLog().info("Skipping ckjm analysis");
+	    return;
+	}
+	List<Path> classes;
+	try (Stream<Path> files = Files.walk(classesDirectory.toPath())) {
+	    classes = files.filter(p -> p.toString().endsWith(".class"))
+		.sorted()
+		.collect(Collectors.toList());
+	} catch (IOException e) {
+	    throw new MojoExecutionException("Error listing " + classesDirectory, e);
+	}
+
+	ByteArrayOutputStream messages = new ByteArrayOutputStream();
+	synchronized (LOCK) {
+	    configure();
+	    org.apache.bcel.util.Repository saved = Repository.getRepository();
+	    boolean traced = MetricsFilter.isTraced();
+	    MetricsFilter.setTraced(false);
+	    try {
+		Repository.setRepository(new ReactorRepository(classpathElements));
+		ClassMetricsContainer cm = new ClassMetricsContainer();
+		PrintStream reports = new PrintStream(messages, true, StandardCharsets.UTF_8);
+		cm.getDigests().setWarnings(reports);
+		for (Path file : classes)
+		    MetricsFilter.processClass(cm, file);
+		cm.getDigests().report(reports);
+		cm.printQuarantine(reports);
+
+		outputFile.getParentFile().mkdirs();
+		try (PrintStream out = new PrintStream(new BufferedOutputStream(
+			new FileOutputStream(outputFile)), false, "UTF-8")) {
+		    cm.printMetrics(new PrintPlainResults(out));
+		    if (out.checkError())
+			throw new IOException("Error writing " + outputFile);
+		}
+	    } catch (IOException e) {
+		throw new MojoExecutionException("ckjm analysis failed", e);
+	    } finally {
+		MetricsFilter.setTraced(traced);
+		Repository.setRepository(saved);
+	    }
+	}
+	for (String line : messages.toString(StandardCharsets.UTF_8).split("\\R"))
+	    if (!line.isEmpty())
+		getLog().warn(line);
+	getLog().info("Wrote the metrics of " + classes.size() + " classes to " + outputFile);
+    }
+
+    /** Set the global analysis options from the module's configuration */
+    private void configure() throws MojoExecutionException {
+	MetricsFilter.setJdkIncluded(includeJdk);
+	MetricsFilter.setOnlyPublic(onlyPublic);
+	MetricsFilter.setCyclesReported(cycles);
+	MetricsFilter.setClassBudget(budgetMillis, budgetInstructions);
+	ArrayList<Metric> selected = new ArrayList<Metric>();
+	try {
+	    if (metrics == null || metrics.trim().isEmpty())
+		selected.addAll(Arrays.asList(Metric.values()));
+	    else
+		for (String name : metrics.split(","))
+		    selected.add(Metric.parse(name.trim()));
+	} catch (IllegalArgumentException e) {
+	    throw new MojoExecutionException("Unknown metric in " + metrics, e);
+	}
+	MetricsFilter.selectMetrics(selected);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.util.ClassPath;
+import org.apache.bcel.util.Repository;
+import org.apache.bcel.util.SyntheticRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A BCEL repository resolving classes through a module's compile class
+ * path, for superclass lookups during an in-process analysis.
+ * Each dependency jar is served by its own repository, which is kept in
+ * a cache shared by all the modules of a reactor build, so a library's
+ * classes are parsed once per build rather than once per module.
+ * Class directories, such as the output of other reactor modules, may
+ * change during the build and are therefore not cached.  Classes not on
+ * the class path are loaded from the JDK.
+ *
+ * @see CkjmMojo
+ */
+class ReactorRepository implements Repository {
+    /** A jar of the class path and the repository serving it */
+    private static class Jar {
+	/** The class files the jar contains */
+	final Set<String> entries;
+	/** The repository caching the jar's parsed classes */
+	final Repository repository;
+
+	Jar(File file) throws IOException {
+	    HashSet<String> names = new HashSet<String>();
+	    try (ZipFile z = new ZipFile(file)) {
+		for (Enumeration<? extends ZipEntry> e = z.entries(); e.hasMoreElements(); )
+		    names.add(e.nextElement().getName());
+	    }
+	    entries = names;
+	    repository = SyntheticRepository.getInstance(new ClassPath(file.getPath()));
+	}
+    }
+
+    /** The jars seen in this JVM, keyed by path, length and modification time */
+    private static final ConcurrentHashMap<String, Jar> JARS = new ConcurrentHashMap<String, Jar>();
+    /** The repository of the JDK's classes */
+    private static final Repository JDK = SyntheticRepository.getInstance();
+
+    /** The class path's jars, in order */
+    private List<Jar> jars = new ArrayList<Jar>();
+    /** The class path's directories, in order */
+    private List<File> directories = new ArrayList<File>();
+    /** The repository of the class path's directories */
+    private Repository local;
+
+    /** Create a repository for the specified class path elements */
+    ReactorRepository(List<String> classpathElements) throws IOException {
+	StringBuilder path = new StringBuilder();
+	for (String element : classpathElements) {
+	    File f = new File(element);
+	    if (f.isDirectory()) {
+		directories.add(f);
+		path.append(path.length() == 0 ? "" : File.pathSeparator).append(element);
+	    } else if (f.isFile()) {
+		String key = f.getAbsolutePath() + ":" + f.length() + ":" + f.lastModified();
+		try {
+		    jars.add(JARS.computeIfAbsent(key, k -> {
+			try {
+			    return new Jar(f);
+			} catch (IOException e) {
+			    throw new UncheckedIOException(e);
+			}
+		    }));
+		} catch (UncheckedIOException e) {
+		    throw e.getCause();
+		}
+	    }
+	}
+	local = SyntheticRepository.getInstance(new ClassPath(path.toString()));
+    }
+
+    /** Return the repository holding a class; the JDK's if no class path element does */
+    private Repository repositoryOf(String className) {
+	String file = className.replace('.', '/') + ".class";
+	for (File d : directories)
+	    if (new File(d, file).isFile())
+		return local;
+	for (Jar j : jars)
+	    if (j.entries.contains(file))
+		return j.repository;
+	return JDK;
+    }
+
+    public JavaClass loadClass(String className) throws ClassNotFoundException {
+	return repositoryOf(className).loadClass(className);
+    }
+
+    public JavaClass loadClass(Class<?> clazz) throws ClassNotFoundException {
+	return loadClass(clazz.getName());
+    }
+
+    public JavaClass findClass(String className) {
+	return repositoryOf(className).findClass(className);
+    }
+
+    /** Store a class among the module's own classes */
+    public void storeClass(JavaClass clazz) {
+	local.storeClass(clazz);
+    }
+
+    public void removeClass(JavaClass clazz) {
+	local.removeClass(clazz);
+    }
+
+    /** Clear the module's own classes; the shared jar caches are kept */
+    public void clear() {
+	local.clear();
+    }
+
+    public ClassPath getClassPath() {
+	return local.getClassPath();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output handler passing snapshots of the class metrics to a batch
+ * handler on a dedicated writer thread.
+ * The analysis thread only takes the snapshot and places it in a
+ * bounded ring buffer; it blocks only when the buffer is full.  The
+ * writer thread drains up to a batch of snapshots at a time, so a slow
+ * sink receives larger batches rather than stalling the analysis.
+ * Closing the handler waits for the writer to pass the remaining
+ * snapshots and reports any error the sink raised.  Should the writer
+ * thread be interrupted and stop, the analysis thread fails instead of
+ * waiting for room in the buffer.
+ *
+ * @see CkjmBatchOutputHandler
+ */
+public class AsyncOutputHandler implements CkjmOutputHandler, Closeable {
+    /** Marker placed in the buffer after the last snapshot */
+    private static final ClassMetricsSnapshot END = new ClassMetricsSnapshot("", new double[0], false, null);
+    /** Time to wait for room in the buffer before checking that the writer still runs, in ms */
+    private static final long OFFER_MILLIS = 100;
+
+    /** The handler receiving the batches */
+    private CkjmBatchOutputHandler sink;
+    /** Maximum number of classes per batch */
+    private int batchSize;
+    /** The snapshots waiting for the writer */
+    private ArrayBlockingQueue<ClassMetricsSnapshot> buffer;
+    /** The thread passing the batches to the sink */
+    private Thread writer;
+    /** The error raised by the sink; null if none */
+    private volatile Exception failure;
+    /** True once the handler has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Create a handler and start its writer thread.
+     * @param sink The handler receiving the batches
+     * @param batchSize Maximum number of classes per batch
+     * @param capacity Number of snapshots the buffer holds
+     */
+    public AsyncOutputHandler(CkjmBatchOutputHandler sink, int batchSize, int capacity) {
+	if (batchSize <= 0 || capacity <= 0)
+	    throw new IllegalArgumentException("Batch size " + batchSize + ", capacity " + capacity);
+	this.sink = sink;
+	this.batchSize = batchSize;
+	buffer = new ArrayBlockingQueue<ClassMetricsSnapshot>(capacity);
+	writer = new Thread(this::write, "ckjm-output-writer");
+	writer.setDaemon(true);
+	writer.start();
+    }
+
+    public void handleClass(String name, ClassMetrics c) {
+	if (closed)
+	    throw new IllegalStateException("Output handler closed");
+	if (failure != null)
+	    throw new IllegalStateException("Output handler failed", failure);
+	try {
+	    if (!offer(new ClassMetricsSnapshot(name, c)))
+		throw new IllegalStateException("Output writer stopped", failure);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException("Interrupted while queueing output", e);
+	}
+    }
+
+    /**
+     * Place a snapshot in the buffer, waiting for room while the writer runs.
+     * Return false if the writer has stopped and the buffer stays full.
+     */
+    private boolean offer(ClassMetricsSnapshot s) throws InterruptedException {
+	while (!buffer.offer(s, OFFER_MILLIS, TimeUnit.MILLISECONDS))
+	    if (!writer.isAlive())
+		return false;
+	return true;
+    }
+
+    /** The writer thread's body */
+    private void write() {
+	for (boolean done = false; !done; ) {
+	    ArrayList<ClassMetricsSnapshot> batch = new ArrayList<ClassMetricsSnapshot>(batchSize);
+	    try {
+		batch.add(buffer.take());
+	    } catch (InterruptedException e) {
+		failure = e;
+		return;
+	    }
+	    buffer.drainTo(batch, batchSize - 1);
+	    if (batch.get(batch.size() - 1) == END) {
+		batch.remove(batch.size() - 1);
+		done = true;
+	    }
+	    /* After a failure keep draining, so that the analysis never blocks */
+	    if (failure != null)
+		continue;
+	    try {
+		if (!batch.isEmpty())
+		    sink.handleBatch(Collections.unmodifiableList(batch));
+		if (done)
+		    sink.finish();
+	    } catch (Exception e) {
+		failure = e;
+	    }
+	}
+    }
+
+    /** Wait for the writer to pass all queued snapshots to the sink */
+    public void close() throws IOException {
+	if (closed)
+	    return;
+	closed = true;
+	try {
+	    offer(END);
+	    writer.join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Interrupted while closing output");
+	}
+	if (failure instanceof IOException)
+	    throw (IOException)failure;
+	if (failure != null)
+	    throw new IOException("Output handler failed", failure);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Output handler passing snapshots of the class metrics to a batch
+ * handler in chunks of a fixed size, on the analysis thread.
+ * Closing the handler passes the last, possibly smaller, chunk.
+ *
+ * @see CkjmBatchOutputHandler
+ */
+public class BatchingOutputHandler implements CkjmOutputHandler, Closeable {
+    /** The handler receiving the batches */
+    private CkjmBatchOutputHandler sink;
+    /** Number of classes per batch */
+    private int batchSize;
+    /** The batch being filled */
+    private ArrayList<ClassMetricsSnapshot> batch;
+
+    public BatchingOutputHandler(CkjmBatchOutputHandler sink, int batchSize) {
+	if (batchSize <= 0)
+	    throw new IllegalArgumentException("Batch size " + batchSize);
+	this.sink = sink;
+	this.batchSize = batchSize;
+	batch = new ArrayList<ClassMetricsSnapshot>(batchSize);
+    }
+
+    public void handleClass(String name, ClassMetrics c) {
+	batch.add(new ClassMetricsSnapshot(name, c));
+	if (batch.size() == batchSize) {
+	    try {
+		flush();
+	    } catch (IOException e) {
+		throw new UncheckedIOException(e);
+	    }
+	}
+    }
+
+    /** Pass the classes gathered so far to the batch handler */
+    public void flush() throws IOException {
+	if (batch.isEmpty())
+	    return;
+	sink.handleBatch(Collections.unmodifiableList(batch));
+	batch = new ArrayList<ClassMetricsSnapshot>(batchSize);
+    }
+
+    public void close() throws IOException {
+	flush();
+	sink.finish();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.util.*;
+
+/**
+ * A set of names whose size is a metric, such as the couplings or the
+ * response set of a class.
+ * The set holds its elements until, in approximate mode, it grows past
+ * the threshold set through MetricsFilter.setApproximation.  It then
+ * discards them and only estimates their number with a HyperLogLog
+ * sketch, whose size depends on the error bound and not on the number
+ * of elements.  A sketched set can no longer enumerate or remove its
+ * elements.
+ *
+ * @see MetricsFilter#setApproximation
+ */
+public class CardinalitySet implements Iterable<String> {
+    /** The elements; null once the set has been sketched */
+    private HashSet<String> elements = new HashSet<String>();
+    /** The sketch's registers, holding the highest rank seen; null while exact */
+    private byte[] registers;
+    /** Number of elements above which the set is sketched */
+    private final int threshold = MetricsFilter.getApproximationThreshold();
+
+    /**
+     * Add an element to the set.
+     * Return false if the set certainly held the element already;
+     * a sketched set always returns true.
+     */
+    public boolean add(String s) {
+	if (registers != null) {
+	    sketch(s);
+	    return true;
+	}
+	boolean added = elements.add(s);
+	if (elements.size() > threshold) {
+	    registers = new byte[1 << MetricsFilter.getApproximationPrecision()];
+	    for (String e : elements)
+		sketch(e);
+	    elements = null;
+	}
+	return added;
+    }
+
+    /**
+     * Remove an element from the set.
+     * Return false if the set did not hold it or has been sketched.
+     */
+    public boolean remove(String s) {
+	return elements != null && elements.remove(s);
+    }
+
+    /** Return true if the set holds its elements and its size is exact */
+    public boolean isExact() { return registers == null; }
+
+    /** Return the number of elements, estimated if the set has been sketched */
+    public int size() {
+	if (registers == null)
+	    return elements.size();
+	int m = registers.length;
+	double sum = 0;
+	int zeros = 0;
+	for (byte r : registers) {
+	    sum += Math.scalb(1.0, -r);
+	    if (r == 0)
+		zeros++;
+	}
+	double estimate = alpha(m) * m * m / sum;
+	/* Linear counting is more accurate for small cardinalities */
+	if (estimate <= 2.5 * m && zeros > 0)
+	    estimate = m * Math.log((double)m / zeros);
+	return (int)Math.round(estimate);
+    }
+
+    /** Return the elements; empty if the set has been sketched */
+    public Set<String> elements() {
+	return elements == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(elements);
+    }
+
+    /** Iterate over the elements; none if the set has been sketched */
+    public Iterator<String> iterator() {
+	return elements().iterator();
+    }
+
+    /** Record an element in the sketch */
+    private void sketch(String s) {
+	long h = hash(s);
+	int p = Integer.numberOfTrailingZeros(registers.length);
+	int index = (int)(h >>> (64 - p));
+	/* The rank is the position of the first one bit after the index bits */
+	int rank = Math.min(Long.numberOfLeadingZeros(h << p), 64 - p) + 1;
+	if (rank > registers[index])
+	    registers[index] = (byte)rank;
+    }
+
+    /** Return a 64-bit hash of a string: FNV-1a followed by a mixing finalizer */
+    private static long hash(String s) {
+	long h = 0xcbf29ce484222325L;
+	for (int i = 0; i < s.length(); i++) {
+	    h ^= s.charAt(i);
+	    h *= 0x100000001b3L;
+	}
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+
+    /** Return the bias correction constant of a sketch with m registers */
+    private static double alpha(int m) {
+	switch (m) {
+	case 16:	return 0.673;
+	case 32:	return 0.697;
+	case 64:	return 0.709;
+	default:	return 0.7213 / (1 + 1.079 / m);
+	}
+    }
+
+    /**
+     * Return the number of index bits of a sketch whose relative
+     * standard error is at most the specified one.
+     */
+    static int precisionFor(double error) {
+	double m = Math.pow(1.04 / error, 2);
+	int p = (int)Math.ceil(Math.log(m) / Math.log(2));
+	return Math.max(4, Math.min(18, p));
+    }
+}
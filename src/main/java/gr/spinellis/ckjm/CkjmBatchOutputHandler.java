@@ -0,0 +1,41 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Interface of output handlers receiving the metrics in batches.
+ * Implement this interface for sinks that benefit from bulk operations,
+ * such as database writers, and adapt it to CkjmOutputHandler through
+ * BatchingOutputHandler or, to decouple the analysis from the sink's
+ * latency, AsyncOutputHandler.
+ *
+ * @see BatchingOutputHandler
+ * @see AsyncOutputHandler
+ */
+public interface CkjmBatchOutputHandler {
+    /**
+     * Method called with each batch of generated metrics
+     * @param batch Snapshots of the metrics of the batch's classes
+     */
+    void handleBatch(List<ClassMetricsSnapshot> batch) throws IOException;
+
+    /**
+     * Method called after the last batch
+     */
+    default void finish() throws IOException {}
+}
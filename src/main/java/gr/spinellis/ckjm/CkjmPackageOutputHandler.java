@@ -0,0 +1,31 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+/**
+ * Interface of package-level output handlers.
+ * Implement this interface together with CkjmOutputHandler to receive
+ * the package aggregates after the classes of a run have been reported.
+ *
+ * @see PackageMetrics
+ */
+public interface CkjmPackageOutputHandler {
+    /**
+     * Method called when the metrics of a package are generated
+     * @param name Name of the package; empty for the default package
+     * @param p Value object that contains the package's aggregate metrics
+     */
+    void handlePackage(String name, PackageMetrics p);
+}
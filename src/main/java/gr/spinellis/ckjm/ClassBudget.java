@@ -0,0 +1,73 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+/**
+ * The time and bytecode instruction budget for visiting a single class.
+ * ClassVisitor and MethodVisitor check the budget as they work; once it
+ * is exceeded every further check throws BudgetExceededException, so
+ * that the visit is abandoned and the class is reported as partial.
+ * A limit of zero means no limit.
+ *
+ * @see ClassVisitor
+ */
+class ClassBudget {
+    /** Instructions between two checks of the clock */
+    private static final int CLOCK_INTERVAL = 1024;
+
+    /** Time the visit started, from System.nanoTime() */
+    private long start = System.nanoTime();
+    /** Allowed visit time in nanoseconds */
+    private long nanos;
+    /** Allowed number of visited instructions */
+    private long maxInstructions;
+    /** Number of instructions visited so far */
+    private long instructions;
+    /** Description of the exceeded budget; null while within budget */
+    private String exceeded;
+
+    ClassBudget(long millis, long maxInstructions) {
+	nanos = millis * 1000000;
+	this.maxInstructions = maxInstructions;
+    }
+
+    /** Throw BudgetExceededException if the budget has been exceeded */
+    void check(String phase) {
+	if (exceeded != null)
+	    throw new BudgetExceededException(exceeded);
+	if (nanos > 0 && System.nanoTime() - start > nanos)
+	    exceed("time budget of " + nanos / 1000000 + " ms exceeded during " + phase);
+    }
+
+    /** Account for a visited instruction */
+    void countInstruction(String phase) {
+	instructions++;
+	if (maxInstructions > 0 && instructions > maxInstructions)
+	    exceed("budget of " + maxInstructions + " instructions exceeded during " + phase);
+	if (instructions % CLOCK_INTERVAL == 0)
+	    check(phase);
+    }
+
+    /** Record the exceeded budget and abandon the visit */
+    private void exceed(String description) {
+	exceeded = description;
+	throw new BudgetExceededException(exceeded);
+    }
+
+    /** Return the time since the visit started, in milliseconds */
+    long elapsedMillis() {
+	return (System.nanoTime() - start) / 1000000;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Track the content digests of the class files analysed in a run.
+ * Byte-identical copies of a class, such as shaded libraries or the
+ * same dependency bundled in several jars, are recognized before they
+ * are parsed so that they are analysed only once.  Different classes
+ * with the same name are reported as conflicts, and only the first
+ * one encountered is analysed.
+ *
+ * @see MetricsFilter#processClass
+ */
+public class ClassDigests {
+    /** The name of the class with each digest */
+    private HashMap<ByteBuffer, String> classes = new HashMap<ByteBuffer, String>();
+    /** The digest of each analysed class */
+    private HashMap<String, ByteBuffer> digests = new HashMap<String, ByteBuffer>();
+    /** Number of skipped identical copies of each class */
+    private TreeMap<String, Integer> duplicates = new TreeMap<String, Integer>();
+    /** Number of skipped conflicting versions of each class */
+    private TreeMap<String, Integer> conflicts = new TreeMap<String, Integer>();
+    /** The stream receiving the conflict warnings */
+    private PrintStream warnings = System.err;
+
+    /** Print the conflict warnings on the specified stream rather than System.err */
+    public void setWarnings(PrintStream out) { warnings = out; }
+
+    /** Return the digest of a class file's contents */
+    public static ByteBuffer digest(byte[] classFile) {
+	try {
+	    return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(classFile));
+	} catch (NoSuchAlgorithmException e) {
+	    throw new AssertionError("SHA-256 is a required algorithm", e);
+	}
+    }
+
+    /**
+     * Return true, counting the copy, if a class file with the given
+     * digest has already been analysed.
+     */
+    public boolean isDuplicate(ByteBuffer digest) {
+	String name = classes.get(digest);
+	if (name == null)
+	    return false;
+	duplicates.merge(name, 1, Integer::sum);
+	return true;
+    }
+
+    /**
+     * Record the digest of a class about to be analysed.
+     * Return false, warning about the conflict, if a different class
+     * with the same name has already been analysed.
+     */
+    public boolean register(String name, ByteBuffer digest, String clspec) {
+	ByteBuffer previous = digests.putIfAbsent(name, digest);
+	if (previous != null && !previous.equals(digest)) {
+	    warnings.println("Warning: " + clspec + " contains a different version of the already analysed " +
+		name + "; ignoring it");
+	    conflicts.merge(name, 1, Integer::sum);
+	    return false;
+	}
+	classes.put(digest, name);
+	return true;
+    }
+
+    /** Return the digest of an analysed class; null if it has not been analysed */
+    public ByteBuffer getDigest(String name) {
+	return digests.get(name);
+    }
+
+    /** Return the name of the analysed class with a digest; null if there is none */
+    public String getName(ByteBuffer digest) {
+	return classes.get(digest);
+    }
+
+    /** Forget an analysed class, so that a new version can be registered */
+    public void forget(String name) {
+	ByteBuffer digest = digests.remove(name);
+	if (digest != null)
+	    classes.remove(digest);
+    }
+
+    /** Print the number of skipped copies and versions of each class, if any */
+    public void report(PrintStream out) {
+	if (!duplicates.isEmpty()) {
+	    int total = 0;
+	    for (int n : duplicates.values())
+		total += n;
+	    out.println("Skipped " + total + " identical copies of " + duplicates.size() + " classes:");
+	    for (Map.Entry<String, Integer> e : duplicates.entrySet())
+		out.println("  " + e.getKey() + " " + e.getValue());
+	}
+	if (!conflicts.isEmpty()) {
+	    out.println("Ignored conflicting versions of " + conflicts.size() + " classes:");
+	    for (Map.Entry<String, Integer> e : conflicts.entrySet())
+		out.println("  " + e.getKey() + " " + e.getValue());
+	}
+    }
+}
@@ -17,8 +17,9 @@
 package gr.spinellis.ckjm;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Store details needed for calculating a class's Chidamber-Kemerer metrics.
@@ -31,9 +32,7 @@ import java.util.List;
  * @author <a href="http://www.spinellis.gr">Diomidis Spinellis</a>
  */
 public class ClassMetrics {
-    /** Weighted methods per class */
-    private float wmc;
-    /** Complexity value per method */
+    /** Complexity value per method, from which the weighted methods per class are derived */
     ArrayList<Float> locArray = new ArrayList<>();
     /** Number of children */
     private int noc;
@@ -65,18 +64,29 @@ public class ClassMetrics {
     private boolean visited;
     /** True if the class is public */
     private boolean isPublicClass;
+    /** True if the class is abstract or an interface */
+    private boolean isAbstractClass;
     /** Coupled classes: classes that use this class */
-    private HashSet<String> afferentCoupledClasses;
+    private CardinalitySet afferentCoupledClasses;
+    /** Coupled classes: classes used by this class */
+    private Set<String> efferentCoupledClasses = Collections.emptySet();
+    /** The name of the class's superclass; null if not visited */
+    private String superClassName;
+    /** Why the class's visit was abandoned; null if it completed */
+    private String partialReason;
+    /** The dependency cycle the class belongs to; 0 if none */
+    private int cycle;
+    /** Number of classes in the class's strongly connected component */
+    private int cycleSize = 1;
 
     /** Default constructor. */
     ClassMetrics() {
-	wmc = 0;
 	noc = 0;
 	cbo = 0;
     dicbo = 0;
 	npm = 0;
 	visited = false;
-	afferentCoupledClasses = new HashSet<String>();
+	afferentCoupledClasses = new CardinalitySet();
     }
 
     /** set the minimum number of lines of code count */
@@ -89,34 +99,40 @@ public class ClassMetrics {
         maxLoc = number;
     }
 
+    /** Return the minimum number of lines of code count */
+    public float getMinLoc() { return minLoc; }
+
+    /** Return the maximum number of lines of code count */
+    public float getMaxLoc() { return maxLoc; }
+
     /** Increment the weighted methods count */
     public void putLocArray(float cx) {
         locArray.add(cx);
     }
-    /** Return the weighted methods per class metric */
+    /**
+     * Return the weighted methods per class metric, derived from the
+     * methods' complexity values without changing the metrics
+     */
     public float getWmc() {
-        System.out.println("minLoc: " + minLoc);
-        System.out.println("maxLoc: " + maxLoc);
+        float wmc = 0;
         for(float eachLoc: locArray) {
             if(eachLoc == minLoc) {
                 wmc = wmc + 1;
-                System.out.println("loc: " + eachLoc + " cx: " + 1);
                 continue;
             } else if(eachLoc == maxLoc) {
                 wmc = wmc + 2;
-                System.out.println("loc: " + eachLoc + " cx: " + 2);
                 continue;
             }
 
             wmc = wmc + ((eachLoc - minLoc)/(maxLoc - minLoc) + 1);
-            float thisWmc = ((eachLoc - minLoc)/(maxLoc - minLoc) + 1);
-            System.out.println("loc: " + eachLoc + " cx: " + thisWmc);
         }
         return wmc;
     }
 
     /** Increment the number of children */
     public void incNoc() { noc++; }
+    /** Decrement the number of children */
+    public void decNoc() { noc--; }
     /** Return the number of children */
     public int getNoc() { return noc; }
 
@@ -165,6 +181,27 @@ public class ClassMetrics {
     public int getCa() { return afferentCoupledClasses.size(); }
     /** Add a class to the set of classes that depend on this class */
     public void addAfferentCoupling(String name) { afferentCoupledClasses.add(name); }
+    /** Return the classes that depend on this class; empty if their set has been approximated */
+    public Set<String> getAfferentCoupledClasses() { return afferentCoupledClasses.elements(); }
+    /** Remove a class from the set of classes that depend on this class */
+    public void removeAfferentCoupling(String name) { afferentCoupledClasses.remove(name); }
+
+    /** Set the classes this class depends on */
+    public void setEfferentCoupledClasses(Set<String> s) { efferentCoupledClasses = s; }
+    /** Return the classes this class depends on */
+    public Set<String> getEfferentCoupledClasses() { return Collections.unmodifiableSet(efferentCoupledClasses); }
+
+    /** Set the name of the class's superclass */
+    public void setSuperClassName(String name) { superClassName = name; }
+    /** Return the name of the class's superclass; null if the class has not been visited */
+    public String getSuperClassName() { return superClassName; }
+
+    /** Set the dependency cycle the class belongs to and the cycle's number of classes */
+    public void setCycle(int id, int size) { cycle = id; cycleSize = size; }
+    /** Return the dependency cycle the class belongs to; 0 if none */
+    public int getCycle() { return cycle; }
+    /** Return the number of classes in the class's dependency cycle; 1 if none */
+    public int getCycleSize() { return cycleSize; }
 
     /** Increment the number of public methods count */
     public void incNpm() { npm++; }
@@ -176,6 +213,11 @@ public class ClassMetrics {
     /** Call to set the class as public */
     public void setPublic() { isPublicClass = true; }
 
+    /** Return true if the class is abstract or an interface */
+    public boolean isAbstract() { return isAbstractClass; }
+    /** Call to set the class as abstract */
+    public void setAbstract() { isAbstractClass = true; }
+
     /** Return true if the class name is part of the Java SDK */
     public static boolean isJdkClass(String s) {
 	return (s.startsWith("java.") ||
@@ -185,6 +227,14 @@ public class ClassMetrics {
 		s.startsWith("org.xml.sax."));
     }
 
+    /** Return the package name of a fully qualified class name */
+    public static String packageName(String className) {
+	int lastDotIndex = className.lastIndexOf('.');
+	if (lastDotIndex == -1)
+	    return "";	// default package
+	return className.substring(0, lastDotIndex);
+    }
+
     /** Return the 6 CK metrics plus Ce as a space-separated string */
     public String toString() {
 	return (
@@ -202,6 +252,22 @@ public class ClassMetrics {
         );
     }
 
+    /** Return the specified metrics, in the order of toString(), as a space-separated string */
+    public String toString(Set<Metric> metrics) {
+	StringBuilder sb = new StringBuilder();
+	for (Metric m : Metric.values())
+	    if (metrics.contains(m))
+		sb.append(sb.length() == 0 ? "" : " ").append(m.format(this));
+	return sb.toString();
+    }
+
+    /** Mark the metrics as partial, because the class's visit was abandoned */
+    public void setPartial(String reason) { partialReason = reason; }
+    /** Return true if the class's visit was abandoned and its metrics are incomplete */
+    public boolean isPartial() { return partialReason != null; }
+    /** Return why the class's visit was abandoned; null if it completed */
+    public String getPartialReason() { return partialReason; }
+
     /** Mark the instance as visited by the metrics analyzer */
     public void setVisited() { visited = true; }
     /**
@@ -211,4 +277,47 @@ public class ClassMetrics {
      * we do not want them to appear in the output results.
      */
     public boolean isVisited() { return visited; }
+
+    /**
+     * Clear the metrics obtained by visiting the class, so that it can
+     * be visited again.  The NOC and Ca metrics, which other classes
+     * contribute, are kept.
+     */
+    public void clearVisit() {
+	locArray = new ArrayList<>();
+	rfc = srfc = drfc = 0;
+	cbo = dicbo = 0;
+	dit = lcom = npm = 0;
+	maxLoc = minLoc = 0;
+	visited = false;
+	isPublicClass = isAbstractClass = false;
+	efferentCoupledClasses = Collections.emptySet();
+	superClassName = null;
+	partialReason = null;
+    }
+
+    /**
+     * Copy the metrics obtained by visiting a class from the metrics
+     * of another instance of the class, such as one visited in another
+     * process.  The NOC and Ca metrics are not copied.
+     */
+    public void copyVisit(ClassMetrics from) {
+	locArray = new ArrayList<>(from.locArray);
+	rfc = from.rfc;
+	srfc = from.srfc;
+	drfc = from.drfc;
+	cbo = from.cbo;
+	dicbo = from.dicbo;
+	dit = from.dit;
+	lcom = from.lcom;
+	npm = from.npm;
+	maxLoc = from.maxLoc;
+	minLoc = from.minLoc;
+	visited = from.visited;
+	isPublicClass = from.isPublicClass;
+	isAbstractClass = from.isAbstractClass;
+	efferentCoupledClasses = from.efferentCoupledClasses;
+	superClassName = from.superClassName;
+	partialReason = from.partialReason;
+    }
 }
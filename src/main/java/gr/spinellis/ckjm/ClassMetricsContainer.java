@@ -35,6 +35,10 @@ class ClassMetricsContainer {
 
     /** The map from class names to the corresponding metrics */
     private HashMap<String, ClassMetrics> m = new HashMap<String, ClassMetrics>();
+    /** The map from package names to the corresponding aggregate metrics */
+    private HashMap<String, PackageMetrics> packages = new HashMap<String, PackageMetrics>();
+    /** The digests of the class files analysed into this container */
+    private ClassDigests digests = new ClassDigests();
 
     /** Return a class's metrics */
     public ClassMetrics getMetrics(String name) {
@@ -46,16 +50,244 @@ class ClassMetricsContainer {
 	return cm;
     }
 
+    /** Return the digests of the class files analysed into this container */
+    public ClassDigests getDigests() { return digests; }
+
+    /** Return the map from class names to metrics, including classes not visited */
+    Map<String, ClassMetrics> classes() {
+	return Collections.unmodifiableMap(m);
+    }
+
+    /** Return a package's aggregate metrics */
+    public PackageMetrics getPackageMetrics(String name) {
+	PackageMetrics pm = packages.get(name);
+	if (pm == null) {
+	    pm = new PackageMetrics();
+	    packages.put(name, pm);
+	}
+	return pm;
+    }
+
+    /**
+     * Record that class from uses class to.
+     * Update the afferent couplings of the used class and, when the two
+     * classes live in different packages, the couplings of their packages.
+     */
+    public void addCoupling(String from, String to) {
+	getMetrics(to).addAfferentCoupling(from);
+	String fromPackage = ClassMetrics.packageName(from);
+	String toPackage = ClassMetrics.packageName(to);
+	if (!fromPackage.equals(toPackage)) {
+	    getPackageMetrics(fromPackage).addEfferentCoupling(to);
+	    getPackageMetrics(toPackage).addAfferentCoupling(from);
+	}
+    }
+
+    /** Retract a coupling previously recorded through addCoupling */
+    public void removeCoupling(String from, String to) {
+	getMetrics(to).removeAfferentCoupling(from);
+	String fromPackage = ClassMetrics.packageName(from);
+	String toPackage = ClassMetrics.packageName(to);
+	if (!fromPackage.equals(toPackage)) {
+	    getPackageMetrics(fromPackage).removeEfferentCoupling(to);
+	    getPackageMetrics(toPackage).removeAfferentCoupling(from);
+	}
+    }
+
+    /**
+     * Retract the contributions a visited class has made to the NOC and
+     * afferent couplings of other classes and clear its own metrics,
+     * so that a changed version of the class can be visited again.
+     */
+    public void retract(String name) {
+	ClassMetrics cm = m.get(name);
+	if (cm == null || !cm.isVisited())
+	    return;
+	for (String to : cm.getEfferentCoupledClasses())
+	    removeCoupling(name, to);
+	getMetrics(cm.getSuperClassName()).decNoc();
+	cm.clearVisit();
+    }
+
+    /**
+     * Add a class visited elsewhere, given the metrics of its visit,
+     * and update the NOC and afferent couplings of the classes it
+     * is related to.
+     */
+    public void addVisited(String name, ClassMetrics visit) {
+	retract(name);
+	ClassMetrics cm = getMetrics(name);
+	cm.copyVisit(visit);
+	getMetrics(cm.getSuperClassName()).incNoc();
+	for (String to : cm.getEfferentCoupledClasses())
+	    addCoupling(name, to);
+    }
+
+    /** Print the classes whose visit exceeded its budget, if any */
+    public void printQuarantine(PrintStream out) {
+	TreeMap<String, String> partial = new TreeMap<String, String>();
+	for (Map.Entry<String, ClassMetrics> e : m.entrySet())
+	    if (e.getValue().isPartial())
+		partial.put(e.getKey(), e.getValue().getPartialReason());
+	if (partial.isEmpty())
+	    return;
+	out.println("Quarantined " + partial.size() + " classes with partial metrics:");
+	for (Map.Entry<String, String> e : partial.entrySet())
+	    out.println("  " + e.getKey() + ": " + e.getValue());
+    }
+
+    /**
+     * Find the dependency cycles among the visited classes and among the
+     * packages containing them, and record the cycle of each class and
+     * package.  The class graph has an edge for each efferent coupling
+     * between visited classes; the package graph has an edge wherever a
+     * class of one package uses a visited class of another.  Cycles are
+     * numbered from 1 in the name order of their first member.
+     */
+    public void findCycles() {
+	ArrayList<String> names = new ArrayList<String>();
+	for (Map.Entry<String, ClassMetrics> e : m.entrySet())
+	    if (e.getValue().isVisited())
+		names.add(e.getKey());
+	Collections.sort(names);
+	int n = names.size();
+	HashMap<String, Integer> classId = new HashMap<String, Integer>(2 * n);
+	for (int v = 0; v < n; v++)
+	    classId.put(names.get(v), v);
+
+	/* The packages, in name order */
+	TreeMap<String, Integer> packageId = new TreeMap<String, Integer>();
+	for (String name : names)
+	    packageId.put(ClassMetrics.packageName(name), 0);
+	int np = 0;
+	for (Map.Entry<String, Integer> e : packageId.entrySet())
+	    e.setValue(np++);
+	int[] packageOf = new int[n];
+	for (int v = 0; v < n; v++)
+	    packageOf[v] = packageId.get(ClassMetrics.packageName(names.get(v)));
+
+	/* Class graph in compressed sparse row form; package edges as from:to pairs */
+	int[] start = new int[n + 1];
+	int[] targets = new int[16];
+	long[] packageEdges = new long[16];
+	int edges = 0, packageEdgeCount = 0;
+	for (int v = 0; v < n; v++) {
+	    start[v] = edges;
+	    for (String to : m.get(names.get(v)).getEfferentCoupledClasses()) {
+		Integer w = classId.get(to);
+		if (w == null)
+		    continue;
+		if (edges == targets.length)
+		    targets = Arrays.copyOf(targets, 2 * edges);
+		targets[edges++] = w;
+		if (packageOf[v] != packageOf[w]) {
+		    if (packageEdgeCount == packageEdges.length)
+			packageEdges = Arrays.copyOf(packageEdges, 2 * packageEdgeCount);
+		    packageEdges[packageEdgeCount++] = (long)packageOf[v] << 32 | packageOf[w];
+		}
+	    }
+	}
+	start[n] = edges;
+
+	int[] component = StronglyConnectedComponents.find(n, start, targets);
+	int[] size = StronglyConnectedComponents.sizes(component);
+	int[] cycle = StronglyConnectedComponents.cycles(component, size);
+	for (int v = 0; v < n; v++)
+	    m.get(names.get(v)).setCycle(cycle[v], size[component[v]]);
+
+	/* Sorting the package edges groups them by source and exposes duplicates */
+	Arrays.sort(packageEdges, 0, packageEdgeCount);
+	int[] packageStart = new int[np + 1];
+	int[] packageTargets = new int[packageEdgeCount];
+	int unique = 0;
+	for (int i = 0; i < packageEdgeCount; i++) {
+	    if (i > 0 && packageEdges[i] == packageEdges[i - 1])
+		continue;
+	    packageStart[(int)(packageEdges[i] >>> 32) + 1]++;
+	    packageTargets[unique++] = (int)packageEdges[i];
+	}
+	for (int p = 0; p < np; p++)
+	    packageStart[p + 1] += packageStart[p];
+
+	component = StronglyConnectedComponents.find(np, packageStart, packageTargets);
+	size = StronglyConnectedComponents.sizes(component);
+	cycle = StronglyConnectedComponents.cycles(component, size);
+	for (Map.Entry<String, Integer> e : packageId.entrySet()) {
+	    int p = e.getValue();
+	    getPackageMetrics(e.getKey()).setCycle(cycle[p], size[component[p]]);
+	}
+    }
+
+    /** Pass a class's metrics to an output handler, recording the emission */
+    static void emit(CkjmOutputHandler handler, String name, ClassMetrics c) {
+	MetricsEvents.OutputEmission event = new MetricsEvents.OutputEmission();
+	event.begin();
+	handler.handleClass(name, c);
+	if (event.shouldCommit()) {
+	    event.className = name;
+	    event.handler = handler.getClass().getName();
+	    event.commit();
+	}
+    }
+
     /** Print the metrics of all the visited classes. */
     public void printMetrics(CkjmOutputHandler handler) {
+	printMetrics(handler, null);
+    }
+
+    /**
+     * Print the metrics of all the visited classes, followed by the
+     * aggregate metrics of the packages containing them.
+     * The package rollup is gathered in the same pass over the classes.
+     * @param packageHandler The package output handler; null if
+     * package metrics are not required
+     */
+    public void printMetrics(CkjmOutputHandler handler, CkjmPackageOutputHandler packageHandler) {
+	printMetrics(handler, packageHandler, null);
+    }
+
+    /**
+     * Print the metrics of the visited classes chosen by a selection,
+     * followed by the aggregate metrics of the packages containing them.
+     * The package rollup covers all visited classes.
+     * @param packageHandler The package output handler; null if
+     * package metrics are not required
+     * @param selection The classes to report; null for all classes
+     */
+    public void printMetrics(CkjmOutputHandler handler, CkjmPackageOutputHandler packageHandler,
+	    MetricsSelection selection) {
 	Set<Map.Entry<String, ClassMetrics>> entries = m.entrySet();
 	Iterator<Map.Entry<String, ClassMetrics>> i;
+	boolean streaming = selection == null || selection.isStreaming();
 
+	if (!streaming)
+	    selection.start();
+	if (MetricsFilter.areCyclesReported())
+	    findCycles();
+	if (packageHandler != null)
+	    for (PackageMetrics pm : packages.values())
+		pm.clearRollup();
 	for (i = entries.iterator(); i.hasNext(); ) {
 	    Map.Entry<String, ClassMetrics> e = i.next();
 	    ClassMetrics cm = e.getValue();
-	    if (cm.isVisited() && (MetricsFilter.includeAll() || cm.isPublic()))
-		handler.handleClass(e.getKey(), cm);
+	    if (!cm.isVisited())
+		continue;
+	    if (packageHandler != null)
+		getPackageMetrics(ClassMetrics.packageName(e.getKey())).addClass(cm);
+	    if (!MetricsFilter.includeAll() && !cm.isPublic())
+		continue;
+	    if (selection != null && !selection.accepts(cm))
+		continue;
+	    if (streaming)
+		emit(handler, e.getKey(), cm);
+	    else
+		selection.add(e.getKey(), cm);
 	}
+	if (!streaming)
+	    selection.finish(handler);
+	if (packageHandler != null)
+	    for (Map.Entry<String, PackageMetrics> e : packages.entrySet())
+		if (e.getValue().getClasses() > 0)
+		    packageHandler.handlePackage(e.getKey(), e.getValue());
     }
 }
@@ -0,0 +1,75 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+/**
+ * An immutable copy of a class's reported metrics.
+ * Unlike ClassMetrics, which the analysis keeps updating, a snapshot
+ * can be handed to another thread or kept after the run.
+ *
+ * @see CkjmBatchOutputHandler
+ */
+public final class ClassMetricsSnapshot {
+    /** The name of the class */
+    private final String name;
+    /** The value of each metric, indexed by the metric's ordinal */
+    private final double[] values;
+    /** True if the class is public */
+    private final boolean isPublicClass;
+    /** Why the class's visit was abandoned; null if it completed */
+    private final String partialReason;
+
+    /** Take a snapshot of a class's metrics */
+    public ClassMetricsSnapshot(String name, ClassMetrics c) {
+	this.name = name;
+	Metric[] metrics = Metric.values();
+	values = new double[metrics.length];
+	for (Metric m : metrics)
+	    values[m.ordinal()] = m.value(c);
+	isPublicClass = c.isPublic();
+	partialReason = c.getPartialReason();
+    }
+
+    /** Create a snapshot from its values, indexed by metric ordinal */
+    ClassMetricsSnapshot(String name, double[] values, boolean isPublicClass, String partialReason) {
+	this.name = name;
+	this.values = values.clone();
+	this.isPublicClass = isPublicClass;
+	this.partialReason = partialReason;
+    }
+
+    /** Return the name of the class */
+    public String getName() { return name; }
+    /** Return the value of a metric */
+    public double get(Metric m) { return values[m.ordinal()]; }
+    /** Return true if the class is public */
+    public boolean isPublic() { return isPublicClass; }
+    /** Return true if the class's visit was abandoned and its metrics are incomplete */
+    public boolean isPartial() { return partialReason != null; }
+    /** Return why the class's visit was abandoned; null if it completed */
+    public String getPartialReason() { return partialReason; }
+
+    /** Return the name and the metrics, as PrintPlainResults prints them */
+    public String toString() {
+	StringBuilder sb = new StringBuilder(name);
+	for (Metric m : Metric.values())
+	    if (MetricsFilter.isMetricSelected(m))
+		sb.append(' ').append(m == Metric.WMC ? String.valueOf((float)get(m)) :
+		    String.valueOf((long)get(m)));
+	if (isPartial())
+	    sb.append(" partial");
+	return sb.toString();
+    }
+}
@@ -17,6 +17,7 @@
 package gr.spinellis.ckjm;
 
 import org.apache.bcel.Constants;
+import org.apache.bcel.Repository;
 import org.apache.bcel.classfile.AnnotationEntry;
 import org.apache.bcel.classfile.Field;
 import org.apache.bcel.classfile.JavaClass;
@@ -57,18 +58,18 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
     /* Classes encountered.
      * Its cardinality is used for calculating the CBO.
      */
-    private HashSet<String> efferentCoupledClasses = new HashSet<String>();
+    private CardinalitySet efferentCoupledClasses = new CardinalitySet();
     private HashSet<String> diEfferentCoupledClasses = new HashSet<String>();
     /**
      * Methods encountered in the same package.
      * Its cardinality is used for calculating the SRFC.
      */
-    private HashSet<String> samePackageResponseSet = new HashSet<String>();
+    private CardinalitySet samePackageResponseSet = new CardinalitySet();
     /**
      * Methods encountered in different packages.
      * Its cardinality is used for calculating the DRFC.
      */
-    private HashSet<String> differentPackageResponseSet = new HashSet<String>();
+    private CardinalitySet differentPackageResponseSet = new CardinalitySet();
     /**
      * Use of fields in methods.
      * Its contents are used for calculating the LCOM.
@@ -86,6 +87,31 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
      * It is used to calculate complexity value of WMC
      */
     private float minLoc = 1;
+    /**
+     * The time and instruction budget of the visit.
+     */
+    private ClassBudget budget = new ClassBudget(0, 0);
+    /**
+     * The precomputed hierarchies of library jars, consulted before BCEL.
+     */
+    private List<HierarchyIndex> hierarchies = MetricsFilter.getHierarchyIndexes();
+    /**
+     * The size of the class file, reported in the flight recorder events.
+     */
+    private int classFileSize;
+    /**
+     * The parts of the analysis required by the selected metrics.
+     * Work needed only for metrics that were not selected is skipped.
+     */
+    private boolean computeDit = MetricsFilter.isMetricSelected(Metric.DIT);
+    private boolean computeWmc = MetricsFilter.isMetricSelected(Metric.WMC);
+    private boolean computeLcom = MetricsFilter.isMetricSelected(Metric.LCOM);
+    private boolean computeCoupling = MetricsFilter.areCouplingsCollected();
+    private boolean computeResponse = MetricsFilter.isMetricSelected(Metric.RFC) ||
+            MetricsFilter.isMetricSelected(Metric.SRFC) ||
+            MetricsFilter.isMetricSelected(Metric.DRFC);
+    /** True if the details of the metrics are printed */
+    private boolean trace = MetricsFilter.isTraced();
 
     public ClassVisitor(JavaClass jc, ClassMetricsContainer classMap) {
         visitedClass = jc;
@@ -102,6 +128,27 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
         return cm;
     }
 
+    /**
+     * Return the budget of the visit.
+     */
+    ClassBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Set the budget of the visit; exceeding it throws BudgetExceededException.
+     */
+    void setBudget(ClassBudget b) {
+        budget = b;
+    }
+
+    /**
+     * Set the size of the class file, reported in the flight recorder events.
+     */
+    void setClassFileSize(int size) {
+        classFileSize = size;
+    }
+
     public void start() {
         visitJavaClass(visitedClass);
     }
@@ -121,25 +168,41 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
         cm.setVisited();
         if (jc.isPublic())
             cm.setPublic();
+        if (jc.isAbstract() || jc.isInterface())
+            cm.setAbstract();
+        cm.setSuperClassName(super_name);
         ClassMetrics pm = cmap.getMetrics(super_name);
 
         pm.incNoc();
-        try {
-            int superClassesLength = jc.getSuperClasses().length;
-
-            /* Measuring decision: don't couple to Java SDK */
-            /* Print DIT details & Set DIT */
-            for (JavaClass superClass : jc.getSuperClasses()) {
-                if (ClassMetrics.isJdkClass(superClass.getClassName())) {
-                    superClassesLength--;
-                } else {
-                    System.out.println("(DIT)SuperClass->" + superClass.getClassName());
+        if (computeDit) {
+            try {
+                List<String> superClasses;
+                MetricsEvents.DitResolution event = new MetricsEvents.DitResolution();
+                event.begin();
+                try {
+                    superClasses = getSuperClassNames(jc);
+                } finally {
+                    if (event.shouldCommit()) {
+                        event.set(jc, classFileSize);
+                        event.commit();
+                    }
                 }
-            }
-            cm.setDit(superClassesLength);
+                int superClassesLength = superClasses.size();
+
+                /* Measuring decision: don't couple to Java SDK */
+                /* Print DIT details & Set DIT */
+                for (String superClass : superClasses) {
+                    if (ClassMetrics.isJdkClass(superClass)) {
+                        superClassesLength--;
+                    } else if (trace) {
+                        System.out.println("(DIT)SuperClass->" + superClass);
+                    }
+                }
+                cm.setDit(superClassesLength);
 
-        } catch (ClassNotFoundException ex) {
-            System.err.println("Error obtaining all superclasses of " + jc);
+            } catch (ClassNotFoundException ex) {
+                System.err.println("Error obtaining all superclasses of " + jc);
+            }
         }
         registerCoupling(super_name);
 
@@ -157,10 +220,50 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
             methods[i].accept(this);
     }
 
+    /**
+     * Return the names of a class's superclasses, nearest first.
+     * Unlike JavaClass.getSuperClasses(), the budget is checked
+     * before each repository lookup and a cyclic superclass chain
+     * is reported instead of looping forever.  Classes found in a
+     * hierarchy index are not loaded.
+     */
+    private List<String> getSuperClassNames(JavaClass jc) throws ClassNotFoundException {
+        ArrayList<String> names = new ArrayList<String>();
+        if (jc.getClassName().equals("java.lang.Object"))
+            return names;
+        HashSet<String> seen = new HashSet<String>();
+        seen.add(jc.getClassName());
+        for (String name = jc.getSuperclassName(); ; ) {
+            budget.check("superclass resolution");
+            if (!seen.add(name))
+                throw new ClassNotFoundException("Cyclic superclass chain through " + name);
+            names.add(name);
+            if (name.equals("java.lang.Object"))
+                return names;
+            String superName = indexedSuperclassName(name);
+            name = superName != null ? superName : Repository.lookupClass(name).getSuperclassName();
+        }
+    }
+
+    /**
+     * Return the superclass of a class defined in a library with a
+     * hierarchy index; null if no index defines the class.
+     */
+    private String indexedSuperclassName(String name) {
+        for (HierarchyIndex h : hierarchies) {
+            String superName = h.getSuperclassName(name);
+            if (superName != null)
+                return superName;
+        }
+        return null;
+    }
+
     /**
      * Add a given class to the classes we are coupled to
      */
     public void registerCoupling(String className) {
+        if (!computeCoupling)
+            return;
         if(className.startsWith("Ljavax/") || className.startsWith("Ljava/") || className.startsWith("Lcom/")){
             return;
         }
@@ -176,8 +279,8 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
         if ((MetricsFilter.isJdkIncluded() ||
                 !ClassMetrics.isJdkClass(className)) &&
                 !myClassName.equals(className) && !expLambda.contains(className)) {
-            efferentCoupledClasses.add(className);
-            cmap.getMetrics(className).addAfferentCoupling(myClassName);
+            if (efferentCoupledClasses.add(className))
+                cmap.addCoupling(myClassName, className);
         }
     }
 
@@ -189,7 +292,7 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
     /* Add a given class to the classes we are coupled to */
     void registerFieldAccess(String className, String fieldName) {
         registerCoupling(className);
-        if (className.equals(myClassName))
+        if (computeLcom && className.equals(myClassName))
             mi.get(mi.size() - 1).add(fieldName);
     }
 
@@ -197,7 +300,8 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
     void registerMethodInvocation(String className, String methodName, Type[] args) {
         registerCoupling(className);
         /* Measuring decision: calls to JDK methods are included in the RFC calculation */
-        incRFC(className, methodName, args);
+        if (computeResponse)
+            incRFC(className, methodName, args);
     }
 
     /**
@@ -228,7 +332,7 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
             String args = argumentList.substring(1, argumentList.length() - 1);
             String signature = className + "." + methodName + "(" + args + ")";
 
-            if (getPackageName(className).equals(getPackageName(myClassName))) {
+            if (ClassMetrics.packageName(className).equals(ClassMetrics.packageName(myClassName))) {
                 // same package
                 samePackageResponseSet.add(signature);
             } else {
@@ -238,19 +342,11 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
         }
     }
 
-    /** Helper method to extract package name from a fully qualified class name. */
-    private String getPackageName(String className) {
-        int lastDotIndex = className.lastIndexOf('.');
-        if (lastDotIndex == -1) {
-            return ""; // default package
-        }
-        return className.substring(0, lastDotIndex);
-    }
-
     /**
      * Called when a method invocation is encountered.
      */
     public void visitMethod(Method method) {
+        budget.check("method " + method.getName());
         MethodGen mg = new MethodGen(method, visitedClass.getClassName(), cp);
 
         AnnotationEntry[] annotations = method.getAnnotationEntries();
@@ -271,10 +367,11 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
 
         /* Loc: lines of code count (each method)  */
         float loc = 0;
-        LineNumberGen[] il = mg.getLineNumbers();
+        LineNumberGen[] il = computeWmc ? mg.getLineNumbers() : null;
         if (il != null) {
             loc = il.length;
-            System.out.println(method.getName() + " (LOC): " + loc);
+            if (trace)
+                System.out.println(method.getName() + " (LOC): " + loc);
             if (loc < minLoc) {
                 minLoc = loc;
             } else if (loc > maxLoc) {
@@ -283,29 +380,37 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
         }
 
         /* Measuring decision: A class's own methods contribute to its RFC */
-        incRFC(myClassName, method.getName(), argTypes);
+        if (computeResponse)
+            incRFC(myClassName, method.getName(), argTypes);
 
         /* Measuring decision: lambda methods generated by compiler are not included in the WMC and NPM calculation. */
         if (!method.getName().startsWith("lambda$")) {
-            cm.putLocArray(loc);
+            if (computeWmc)
+                cm.putLocArray(loc);
             /* Print WMC details */
             String argumentList = Arrays.asList(argTypes).toString();
             // remove [ ] chars from begin and end
             String args = argumentList.substring(1, argumentList.length() - 1);
-            System.out.println("(WMC)all methods->>" + myClassName + "." + method.getName() + "(" + args + ")");
+            if (trace)
+                System.out.println("(WMC)all methods->>" + myClassName + "." + method.getName() + "(" + args + ")");
 
 
             if (Modifier.isPublic(method.getModifiers())) {
                 cm.incNpm();
                 /* Print NPM details */
-                System.out.println("(NPM)public methods->>" + myClassName + "." + method.getName() + "(" + args + ")");
+                if (trace)
+                    System.out.println("(NPM)public methods->>" + myClassName + "." + method.getName() + "(" + args + ")");
             }
         }
 
 
-        mi.add(new TreeSet<String>());
-        MethodVisitor factory = new MethodVisitor(mg, this);
-        factory.start();
+        if (computeLcom)
+            mi.add(new TreeSet<String>());
+        /* The method's instructions only matter for coupling, response and cohesion */
+        if (computeCoupling || computeResponse || computeLcom) {
+            MethodVisitor factory = new MethodVisitor(mg, this);
+            factory.start();
+        }
     }
 
     /**
@@ -333,27 +438,30 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
         cm.setMaxLoc(maxLoc);
 
         cm.setCbo(efferentCoupledClasses.size());
-        /* Print CBO details */
-        for (String className : efferentCoupledClasses) {
-            System.out.println("(CBO)CoupledClass->>" + className);
-        }
-
+        cm.setEfferentCoupledClasses(efferentCoupledClasses.elements());
         cm.setDicbo(diEfferentCoupledClasses.size());
-        for (String className : diEfferentCoupledClasses) {
-            System.out.println("(DICBO)CoupledClass->>" + className);
-        }
-
         cm.setSrfc(samePackageResponseSet.size());
         cm.setDrfc(differentPackageResponseSet.size());
-        /* Print SRFC & DRFC details */
-        System.out.println("(SRFC) Same Package Response Set Size: " + cm.getSrfc());
-        for (String response : samePackageResponseSet) {
-            System.out.println("(SRFC) Response ->> " + response);
-        }
+        if (trace) {
+            /* Print CBO details */
+            for (String className : efferentCoupledClasses) {
+                System.out.println("(CBO)CoupledClass->>" + className);
+            }
 
-        System.out.println("(DRFC) Different Package Response Set Size: " + cm.getDrfc());
-        for (String response : differentPackageResponseSet) {
-            System.out.println("(DRFC) Response ->> " + response);
+            for (String className : diEfferentCoupledClasses) {
+                System.out.println("(DICBO)CoupledClass->>" + className);
+            }
+
+            /* Print SRFC & DRFC details */
+            System.out.println("(SRFC) Same Package Response Set Size: " + cm.getSrfc());
+            for (String response : samePackageResponseSet) {
+                System.out.println("(SRFC) Response ->> " + response);
+            }
+
+            System.out.println("(DRFC) Different Package Response Set Size: " + cm.getDrfc());
+            for (String response : differentPackageResponseSet) {
+                System.out.println("(DRFC) Response ->> " + response);
+            }
         }
 
         /*
@@ -363,16 +471,27 @@ public class ClassVisitor extends org.apache.bcel.classfile.EmptyVisitor {
          * Q = set of all nonempty set intersections
          */
         int lcom = 0;
-        for (int i = 0; i < mi.size(); i++)
-            for (int j = i + 1; j < mi.size(); j++) {
-                /* A shallow unknown-type copy is enough */
-                TreeSet<?> intersection = (TreeSet<?>) mi.get(i).clone();
-                intersection.retainAll(mi.get(j));
-                if (intersection.size() == 0)
-                    lcom++;
-                else
-                    lcom--;
+        MetricsEvents.LcomComputation event = new MetricsEvents.LcomComputation();
+        event.begin();
+        try {
+            for (int i = 0; i < mi.size(); i++) {
+                budget.check("LCOM calculation");
+                for (int j = i + 1; j < mi.size(); j++) {
+                    /* A shallow unknown-type copy is enough */
+                    TreeSet<?> intersection = (TreeSet<?>) mi.get(i).clone();
+                    intersection.retainAll(mi.get(j));
+                    if (intersection.size() == 0)
+                        lcom++;
+                    else
+                        lcom--;
+                }
+            }
+        } finally {
+            if (event.shouldCommit()) {
+                event.set(visitedClass, classFileSize);
+                event.commit();
             }
+        }
         cm.setLcom(lcom > 0 ? lcom : 0);
     }
 }
@@ -0,0 +1,312 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A precomputed index of the class hierarchy of a library jar, mapping
+ * each of its classes to its superclass, its interfaces and its public
+ * flag.  Consulting the index while resolving superclasses avoids
+ * loading and parsing the library's classes with BCEL on every run.
+ * <p>
+ * Since a released library jar never changes, an index is built once,
+ * by running this class's main, and stored in a shared directory under
+ * the SHA-256 digest of the jar's contents.  It is memory mapped when
+ * used, so that lookups only touch the pages they need.
+ * The file consists of (all integers are big-endian):
+ * <ul>
+ * <li>a header: magic number and version, number of names N;</li>
+ * <li>the name dictionary: N + 1 offsets into the UTF-8 names that
+ * follow, sorted by their bytes and padded to a multiple of four bytes;</li>
+ * <li>N superclass name ids, -1 for none;</li>
+ * <li>N flags: 1 if the jar defines the class, 2 if it is public,
+ * 4 if it is an interface;</li>
+ * <li>the interfaces as N + 1 offsets followed by the name ids.</li>
+ * </ul>
+ *
+ * @see MetricsFilter#loadHierarchyIndexes
+ */
+public class HierarchyIndex {
+    /** The index file's magic number and version */
+    static final long MAGIC = 0x434b4a4d48495801L;	// "CKJMHIX" 1
+    /** The suffix of index file names */
+    static final String SUFFIX = ".ckh";
+
+    /** Flag of names defined in the jar, rather than only referenced */
+    private static final int DEFINED = 1;
+    /** Flag of public classes */
+    private static final int PUBLIC = 2;
+    /** Flag of interfaces */
+    private static final int INTERFACE = 4;
+
+    /** The mapped index */
+    private ByteBuffer b;
+    /** Number of names in the dictionary */
+    private int n;
+    /** Position of the name offsets and of the names */
+    private int nameOffsets, namesStart;
+    /** Position of the superclass ids, the flags and the interfaces */
+    private int superclasses, flags, interfaces;
+
+    /** Map an index file */
+    public HierarchyIndex(File file) throws IOException {
+	try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+	    b = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+	}
+	if (b.limit() < 12 || b.getLong(0) != MAGIC)
+	    throw new IOException(file + ": not a ckjm hierarchy index of this version");
+	n = b.getInt(8);
+	nameOffsets = 12;
+	namesStart = nameOffsets + 4 * (n + 1);
+	int namesLength = b.getInt(nameOffsets + 4 * n);
+	superclasses = namesStart + (namesLength + 3) / 4 * 4;
+	flags = superclasses + 4 * n;
+	interfaces = flags + 4 * n;
+    }
+
+    /** Return the name with the given id */
+    private String name(int id) {
+	int start = b.getInt(nameOffsets + 4 * id);
+	int end = b.getInt(nameOffsets + 4 * (id + 1));
+	byte[] bytes = new byte[end - start];
+	ByteBuffer d = b.duplicate();
+	d.position(namesStart + start);
+	d.get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the id of a class the jar defines, or -1 if it does not.
+     * The names are compared as bytes, so that a lookup allocates nothing
+     * beyond the encoded key.
+     */
+    private int find(String name) {
+	byte[] key = name.getBytes(StandardCharsets.UTF_8);
+	int lo = 0, hi = n - 1;
+	while (lo <= hi) {
+	    int mid = (lo + hi) >>> 1;
+	    int start = namesStart + b.getInt(nameOffsets + 4 * mid);
+	    int end = namesStart + b.getInt(nameOffsets + 4 * (mid + 1));
+	    int c = 0;
+	    for (int i = 0; c == 0 && i < key.length && start + i < end; i++)
+		c = Integer.compare(b.get(start + i) & 0xff, key[i] & 0xff);
+	    if (c == 0)
+		c = Integer.compare(end - start, key.length);
+	    if (c < 0)
+		lo = mid + 1;
+	    else if (c > 0)
+		hi = mid - 1;
+	    else
+		return (b.getInt(flags + 4 * mid) & DEFINED) != 0 ? mid : -1;
+	}
+	return -1;
+    }
+
+    /** Return true if the jar defines the class */
+    public boolean contains(String name) {
+	return find(name) != -1;
+    }
+
+    /** Return the name of a class's superclass; null if the jar does not define the class */
+    public String getSuperclassName(String name) {
+	int id = find(name);
+	if (id == -1)
+	    return null;
+	int superclass = b.getInt(superclasses + 4 * id);
+	return superclass == -1 ? null : name(superclass);
+    }
+
+    /** Return the names of a class's interfaces; null if the jar does not define the class */
+    public String[] getInterfaceNames(String name) {
+	int id = find(name);
+	if (id == -1)
+	    return null;
+	int start = b.getInt(interfaces + 4 * id);
+	int end = b.getInt(interfaces + 4 * (id + 1));
+	int ids = interfaces + 4 * (n + 1);
+	String[] result = new String[end - start];
+	for (int i = start; i < end; i++)
+	    result[i - start] = name(b.getInt(ids + 4 * i));
+	return result;
+    }
+
+    /** Return true if the jar defines the class and the class is public */
+    public boolean isPublic(String name) {
+	int id = find(name);
+	return id != -1 && (b.getInt(flags + 4 * id) & PUBLIC) != 0;
+    }
+
+    /** Return the hexadecimal SHA-256 digest of a jar's contents */
+    static String digest(File jar) throws IOException {
+	MessageDigest md;
+	try {
+	    md = MessageDigest.getInstance("SHA-256");
+	} catch (NoSuchAlgorithmException e) {
+	    throw new AssertionError("SHA-256 is a required algorithm", e);
+	}
+	try (InputStream in = new DigestInputStream(new FileInputStream(jar), md)) {
+	    byte[] buffer = new byte[1 << 16];
+	    while (in.read(buffer) != -1)
+		;
+	}
+	StringBuilder sb = new StringBuilder();
+	for (byte x : md.digest())
+	    sb.append(String.format("%02x", x));
+	return sb.toString();
+    }
+
+    /** Return the file holding the index of a jar in an index directory */
+    static File indexFile(File dir, File jar) throws IOException {
+	return new File(dir, digest(jar) + SUFFIX);
+    }
+
+    /**
+     * Write the hierarchy index of a jar.
+     * The index is written to a temporary file and then renamed, so that
+     * concurrent builds sharing the directory never see a partial index.
+     */
+    public static void write(File jar, File file) throws IOException {
+	TreeMap<String, JavaClass> classes = new TreeMap<String, JavaClass>();
+	try (ZipFile z = new ZipFile(jar)) {
+	    for (Enumeration<? extends ZipEntry> e = z.entries(); e.hasMoreElements(); ) {
+		ZipEntry entry = e.nextElement();
+		String name = entry.getName();
+		/* Like the class loader, ignore multi-release versions and module descriptors */
+		if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("module-info.class"))
+		    continue;
+		try (InputStream in = z.getInputStream(entry)) {
+		    JavaClass jc = new ClassParser(in, name).parse();
+		    classes.putIfAbsent(jc.getClassName(), jc);
+		}
+	    }
+	}
+
+	/* The dictionary holds the defined and the referenced names, sorted by their UTF-8 bytes */
+	TreeSet<String> dictionary = new TreeSet<String>(
+	    Comparator.comparing((String s) -> s.getBytes(StandardCharsets.UTF_8), Arrays::compareUnsigned));
+	for (JavaClass jc : classes.values()) {
+	    dictionary.add(jc.getClassName());
+	    if (!jc.getClassName().equals("java.lang.Object"))
+		dictionary.add(jc.getSuperclassName());
+	    dictionary.addAll(Arrays.asList(jc.getInterfaceNames()));
+	}
+	String[] names = dictionary.toArray(new String[0]);
+	HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	for (int i = 0; i < names.length; i++)
+	    ids.put(names[i], i);
+	int n = names.length;
+
+	File tmp = File.createTempFile("hierarchy", ".tmp", file.getAbsoluteFile().getParentFile());
+	try {
+	    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		    new FileOutputStream(tmp), 1 << 16))) {
+		out.writeLong(MAGIC);
+		out.writeInt(n);
+
+		/* Name dictionary: offsets followed by the UTF-8 names */
+		byte[][] bytes = new byte[n][];
+		int offset = 0;
+		out.writeInt(0);
+		for (int i = 0; i < n; i++) {
+		    bytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+		    offset += bytes[i].length;
+		    out.writeInt(offset);
+		}
+		for (byte[] x : bytes)
+		    out.write(x);
+		for (; offset % 4 != 0; offset++)
+		    out.writeByte(0);
+
+		for (String name : names) {
+		    JavaClass jc = classes.get(name);
+		    out.writeInt(jc == null || name.equals("java.lang.Object") ? -1 : ids.get(jc.getSuperclassName()));
+		}
+		for (String name : names) {
+		    JavaClass jc = classes.get(name);
+		    out.writeInt(jc == null ? 0 :
+			DEFINED | (jc.isPublic() ? PUBLIC : 0) | (jc.isInterface() ? INTERFACE : 0));
+		}
+
+		/* Interfaces: offsets followed by the name ids */
+		offset = 0;
+		out.writeInt(0);
+		for (String name : names) {
+		    JavaClass jc = classes.get(name);
+		    offset += jc == null ? 0 : jc.getInterfaceNames().length;
+		    out.writeInt(offset);
+		}
+		for (String name : names) {
+		    JavaClass jc = classes.get(name);
+		    if (jc != null)
+			for (String i : jc.getInterfaceNames())
+			    out.writeInt(ids.get(i));
+		}
+	    }
+	    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		StandardCopyOption.ATOMIC_MOVE);
+	} finally {
+	    tmp.delete();
+	}
+    }
+
+    /**
+     * Build the missing hierarchy indexes of the specified jars.
+     * Usage: HierarchyIndex index-directory jar ...
+     */
+    public static void main(String[] argv) {
+	if (argv.length < 2) {
+	    System.err.println("Usage: HierarchyIndex index-directory jar ...");
+	    System.exit(1);
+	}
+	File dir = new File(argv[0]);
+	dir.mkdirs();
+	for (int i = 1; i < argv.length; i++) {
+	    File jar = new File(argv[i]);
+	    try {
+		File file = indexFile(dir, jar);
+		if (file.exists()) {
+		    try {
+			new HierarchyIndex(file);
+			System.err.println(jar + ": up to date");
+			continue;
+		    } catch (IOException e) {
+			/* An index of an older version; rebuild it */
+		    }
+		}
+		write(jar, file);
+		System.err.println(jar + ": indexed into " + file);
+	    } catch (IOException | RuntimeException e) {
+		System.err.println("Error indexing " + jar + ": " + e);
+		System.exit(1);
+	    }
+	}
+    }
+}
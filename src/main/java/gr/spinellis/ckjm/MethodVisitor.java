@@ -45,6 +45,14 @@ class MethodVisitor extends EmptyVisitor {
      * The metrics of the class the method visitor is in.
      */
     private ClassMetrics cm;
+    /**
+     * The budget of the class's visit.
+     */
+    private ClassBudget budget;
+    /**
+     * The phase reported when the budget is exceeded.
+     */
+    private String phase;
 
     /**
      * Constructor.
@@ -54,6 +62,8 @@ class MethodVisitor extends EmptyVisitor {
         cv = c;
         cp = mg.getConstantPool();
         cm = cv.getMetrics();
+        budget = cv.getBudget();
+        phase = "method " + mg.getName();
     }
 
     /**
@@ -64,6 +74,7 @@ class MethodVisitor extends EmptyVisitor {
             for (InstructionHandle ih = mg.getInstructionList().getStart();
                  ih != null; ih = ih.getNext()) {
                 Instruction i = ih.getInstruction();
+                budget.countInstruction(phase);
 
                 if (!visitInstruction(i))
                     i.accept(this);
@@ -0,0 +1,78 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+/**
+ * The class metrics reported by ckjm, in the order in which
+ * ClassMetrics.toString() prints them.
+ *
+ * @see ClassMetrics
+ */
+public enum Metric {
+    /** Weighted methods per class */
+    WMC,
+    /** Depth of inheritance tree */
+    DIT,
+    /** Number of children */
+    NOC,
+    /** Coupling between object classes */
+    CBO,
+    /** Coupling between object classes specific to the Spring Framework */
+    DICBO,
+    /** Response for a class */
+    RFC,
+    /** Lack of cohesion in methods */
+    LCOM,
+    /** Afferent couplings */
+    CA,
+    /** Number of public methods */
+    NPM,
+    /** Same package response for a class */
+    SRFC,
+    /** Different package response for a class */
+    DRFC;
+
+    /** Return the value of the metric for a class */
+    public float value(ClassMetrics c) {
+	return this == WMC ? c.getWmc() : intValue(c);
+    }
+
+    /** Return the value of the metric for a class as ClassMetrics.toString() prints it */
+    public String format(ClassMetrics c) {
+	return this == WMC ? String.valueOf(c.getWmc()) : String.valueOf(intValue(c));
+    }
+
+    /** Return the value of an integer metric for a class */
+    int intValue(ClassMetrics c) {
+	switch (this) {
+	case DIT:	return c.getDit();
+	case NOC:	return c.getNoc();
+	case CBO:	return c.getCbo();
+	case DICBO:	return c.getDicbo();
+	case RFC:	return c.getSrfc() + c.getDrfc();
+	case LCOM:	return c.getLcom();
+	case CA:	return c.getCa();
+	case NPM:	return c.getNpm();
+	case SRFC:	return c.getSrfc();
+	case DRFC:	return c.getDrfc();
+	default:	throw new AssertionError(this);
+	}
+    }
+
+    /** Return the metric with the given name, ignoring case */
+    public static Metric parse(String name) {
+	return valueOf(name.toUpperCase(java.util.Locale.ROOT));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Compare the metrics of two builds of the same code.
+ * The classes of the new build that are byte-identical to a class of
+ * the old build are not visited again: the old visit's metrics are
+ * added to the new build's container, which recomputes the NOC and Ca
+ * that changed classes contribute to them.
+ * <p>
+ * The report lists, in class name order, one line per difference:
+ * <pre>added class metrics...
+ *removed class metrics...
+ *changed class metric old new delta</pre>
+ * where the metrics are the selected ones, in the order of the plain
+ * output.  Classes without differences are omitted.
+ *
+ * @see MetricsFilter#processClass(ClassMetricsContainer, String, ClassMetricsContainer)
+ */
+public class MetricsDiff {
+    /** The metrics of the old build */
+    private ClassMetricsContainer oldMetrics = new ClassMetricsContainer();
+    /** The metrics of the new build */
+    private ClassMetricsContainer newMetrics = new ClassMetricsContainer();
+    /** Number of classes of the new build reused from the old one */
+    private int reused;
+
+    /** Analyse a class of the old build */
+    public void addOld(String clspec) {
+	MetricsFilter.processClass(oldMetrics, clspec);
+    }
+
+    /**
+     * Analyse a class of the new build.
+     * All classes of the old build must have been added before.
+     */
+    public void addNew(String clspec) {
+	if (MetricsFilter.processClass(newMetrics, clspec, oldMetrics))
+	    reused++;
+    }
+
+    /** Return the number of classes of the new build reused from the old one */
+    public int getReused() { return reused; }
+
+    /** Return a class's metrics if it has been visited and is to be reported */
+    private static ClassMetrics reported(ClassMetricsContainer cm, String name) {
+	ClassMetrics c = cm.classes().get(name);
+	if (c == null || !c.isVisited() || (!MetricsFilter.includeAll() && !c.isPublic()))
+	    return null;
+	return c;
+    }
+
+    /** Print the differences between the two builds */
+    public void report(PrintStream out) {
+	Set<Metric> metrics = MetricsFilter.getSelectedMetrics();
+	TreeSet<String> names = new TreeSet<String>(oldMetrics.classes().keySet());
+	names.addAll(newMetrics.classes().keySet());
+	for (String name : names) {
+	    ClassMetrics o = reported(oldMetrics, name);
+	    ClassMetrics n = reported(newMetrics, name);
+	    if (o == null && n == null)
+		continue;
+	    if (o == null)
+		out.println("added " + name + " " + n.toString(metrics));
+	    else if (n == null)
+		out.println("removed " + name + " " + o.toString(metrics));
+	    else
+		for (Metric m : metrics) {
+		    String before = m.format(o);
+		    String after = m.format(n);
+		    if (!before.equals(after))
+			out.println("changed " + name + " " + m + " " + before + " " + after + " " + delta(m, o, n));
+		}
+	}
+    }
+
+    /** Return the signed change of a metric between two versions of a class */
+    private static String delta(Metric m, ClassMetrics o, ClassMetrics n) {
+	if (m == Metric.WMC) {
+	    float d = n.getWmc() - o.getWmc();
+	    return (d > 0 ? "+" : "") + d;
+	}
+	int d = m.intValue(n) - m.intValue(o);
+	return (d > 0 ? "+" : "") + d;
+    }
+
+    /** Return the class specifications listed in a file, one per line */
+    private static List<String> readList(File file) throws IOException {
+	ArrayList<String> specs = new ArrayList<String>();
+	for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+	    if (!line.isEmpty())
+		specs.add(line);
+	return specs;
+    }
+
+    /**
+     * Analyse the classes listed in the two files, in the format of
+     * MetricsFilter's standard input, and print their differences.
+     * The visitor's trace output on System.out is discarded meanwhile,
+     * so that the report can be parsed even when out is System.out.
+     */
+    public void run(File oldList, File newList, PrintStream out) throws IOException {
+	List<String> oldSpecs = readList(oldList);
+	List<String> newSpecs = readList(newList);
+	PrintStream trace = System.out;
+	System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	try {
+	    for (String clspec : oldSpecs)
+		addOld(clspec);
+	    for (String clspec : newSpecs)
+		addNew(clspec);
+	    System.err.println("Reused the metrics of " + reused + " unchanged classes");
+	    oldMetrics.printQuarantine(System.err);
+	    newMetrics.printQuarantine(System.err);
+	    report(out);
+	    out.flush();
+	} finally {
+	    System.setOut(trace);
+	}
+    }
+}
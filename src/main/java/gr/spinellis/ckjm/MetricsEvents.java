@@ -0,0 +1,96 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.apache.bcel.classfile.JavaClass;
+
+/**
+ * JDK Flight Recorder events timing the phases of the analysis of each
+ * class, so that a recording shows which classes and phases take time.
+ * An event is begun before its phase and committed after it; its fields
+ * are filled only if shouldCommit() returns true, so that when no
+ * recording is enabled the instrumentation costs next to nothing.
+ * Any recording includes the events; a .jfc settings file can disable
+ * them or set a duration threshold through their names, such as
+ * gr.spinellis.ckjm.ClassVisit.
+ */
+class MetricsEvents {
+    /** An event concerning one class */
+    abstract static class ClassEvent extends Event {
+	@Label("Class Name")
+	String className;
+
+	@Label("Method Count")
+	int methodCount;
+
+	@Label("Byte Size")
+	@Description("Size of the class file")
+	@DataAmount
+	long byteSize;
+
+	/** Set the fields describing a class */
+	void set(JavaClass jc, long classFileSize) {
+	    className = jc.getClassName();
+	    methodCount = jc.getMethods().length;
+	    byteSize = classFileSize;
+	}
+    }
+
+    @Name("gr.spinellis.ckjm.ClassParse")
+    @Label("Class Parse")
+    @Category({"ckjm", "Analysis"})
+    @Description("Parsing of a class file by BCEL")
+    static class ClassParse extends ClassEvent {
+    }
+
+    @Name("gr.spinellis.ckjm.ClassVisit")
+    @Label("Class Visit")
+    @Category({"ckjm", "Analysis"})
+    @Description("Complete visit of a class, including the DIT and LCOM calculation")
+    static class ClassVisit extends ClassEvent {
+    }
+
+    @Name("gr.spinellis.ckjm.DitResolution")
+    @Label("DIT Resolution")
+    @Category({"ckjm", "Analysis"})
+    @Description("Resolution of a class's superclasses for its depth of inheritance tree")
+    static class DitResolution extends ClassEvent {
+    }
+
+    @Name("gr.spinellis.ckjm.LcomComputation")
+    @Label("LCOM Computation")
+    @Category({"ckjm", "Analysis"})
+    @Description("Calculation of a class's lack of cohesion in methods")
+    static class LcomComputation extends ClassEvent {
+    }
+
+    @Name("gr.spinellis.ckjm.OutputEmission")
+    @Label("Output Emission")
+    @Category({"ckjm", "Output"})
+    @Description("Passing of a class's metrics to the output handler")
+    static class OutputEmission extends Event {
+	@Label("Class Name")
+	String className;
+
+	@Label("Output Handler")
+	String handler;
+    }
+}
@@ -23,7 +23,13 @@ import org.apache.bcel.Constants;
 import org.apache.bcel.util.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * Convert a list of classes into their metrics.
@@ -49,6 +55,68 @@ public class MetricsFilter {
      */
     private static boolean onlyPublic = false;
 
+    /**
+     * True if the reports should include the dependency cycle of each class
+     */
+    private static boolean reportCycles = false;
+
+    /**
+     * True if the visitor should print the details of each class's metrics
+     */
+    private static boolean traced = true;
+
+    /**
+     * The time in milliseconds allowed for visiting a class; 0 for no limit
+     */
+    private static long classTimeBudget = 0;
+
+    /**
+     * The number of bytecode instructions allowed for visiting a class; 0 for no limit
+     */
+    private static long classInstructionBudget = 0;
+
+    /**
+     * The size above which coupling and response sets are approximated;
+     * Integer.MAX_VALUE if they are always exact
+     */
+    private static int approximationThreshold = Integer.MAX_VALUE;
+
+    /**
+     * The number of index bits of the approximated sets' sketches
+     */
+    private static int approximationPrecision = 14;
+
+    /**
+     * The hierarchy indexes consulted before loading superclasses with BCEL
+     */
+    private static List<HierarchyIndex> hierarchyIndexes = Collections.emptyList();
+
+    /**
+     * The metrics to compute and report
+     */
+    private static EnumSet<Metric> selectedMetrics = EnumSet.allOf(Metric.class);
+
+    /**
+     * True if the coupling edges are needed by an output mode even when
+     * no coupling metric is selected
+     */
+    private static boolean couplingsRequired = false;
+
+    /**
+     * Return true if the visitor should print the details of each class's metrics
+     */
+    public static boolean isTraced() {
+        return traced;
+    }
+
+    /**
+     * Set whether the visitor should print the details of each class's
+     * metrics on the standard output
+     */
+    public static void setTraced(boolean trace) {
+        traced = trace;
+    }
+
     /**
      * Return true if the measurements should include calls to the Java JDK into account
      */
@@ -56,6 +124,20 @@ public class MetricsFilter {
         return includeJdk;
     }
 
+    /**
+     * Set whether the measurements should include calls to the Java JDK
+     */
+    public static void setJdkIncluded(boolean include) {
+        includeJdk = include;
+    }
+
+    /**
+     * Set whether the reports should only include public classes
+     */
+    public static void setOnlyPublic(boolean only) {
+        onlyPublic = only;
+    }
+
     /**
      * Return true if the measurements should include all classes
      */
@@ -63,34 +145,288 @@ public class MetricsFilter {
         return !onlyPublic;
     }
 
+    /**
+     * Return true if the reports should include the dependency cycle of each class
+     */
+    public static boolean areCyclesReported() {
+        return reportCycles;
+    }
+
+    /**
+     * Set whether the reports should include the dependency cycle of each class
+     */
+    public static void setCyclesReported(boolean report) {
+        reportCycles = report;
+    }
+
+    /**
+     * Return true if the specified metric should be computed and reported
+     */
+    public static boolean isMetricSelected(Metric m) {
+        return selectedMetrics.contains(m);
+    }
+
+    /**
+     * Return the metrics that should be computed and reported
+     */
+    public static Set<Metric> getSelectedMetrics() {
+        return Collections.unmodifiableSet(selectedMetrics);
+    }
+
+    /**
+     * Return true if the classes each class uses should be collected,
+     * either for the coupling metrics or for the package metrics, the
+     * dependency cycles, the index or the shard results built from them
+     */
+    public static boolean areCouplingsCollected() {
+        return couplingsRequired || reportCycles || selectedMetrics.contains(Metric.CBO) ||
+            selectedMetrics.contains(Metric.CA) || selectedMetrics.contains(Metric.DICBO);
+    }
+
+    /**
+     * Set whether the coupling edges should be collected regardless of
+     * the selected metrics
+     */
+    public static void setCouplingsRequired(boolean required) {
+        couplingsRequired = required;
+    }
+
+    /**
+     * Compute and report only the specified metrics, skipping the parts
+     * of the analysis that only the other metrics require.
+     * Metrics that are not selected are reported as zero by ClassMetrics.
+     */
+    public static void selectMetrics(Collection<Metric> metrics) {
+        if (metrics.isEmpty())
+            throw new IllegalArgumentException("No metrics selected");
+        selectedMetrics = EnumSet.copyOf(metrics);
+    }
+
+    /**
+     * Limit the time and the number of bytecode instructions of a class's
+     * visit.  Classes exceeding either limit are reported with their
+     * metrics marked as partial.  A limit of zero means no limit.
+     */
+    public static void setClassBudget(long millis, long instructions) {
+        classTimeBudget = millis;
+        classInstructionBudget = instructions;
+    }
+
+    /**
+     * Approximate the sets behind the Ca, CBO and RFC metrics once they
+     * grow past the specified number of elements, estimating their size
+     * with a relative standard error of at most the specified one.
+     * The memory of an approximated set no longer grows with its size,
+     * but its elements, and thus the class's coupling edges, are lost.
+     */
+    public static void setApproximation(double error, int threshold) {
+        if (!(error > 0 && error < 1) || threshold < 0)
+            throw new IllegalArgumentException("Error " + error + ", threshold " + threshold);
+        approximationPrecision = CardinalitySet.precisionFor(error);
+        approximationThreshold = threshold;
+    }
+
+    /**
+     * Return the size above which coupling and response sets are approximated
+     */
+    public static int getApproximationThreshold() {
+        return approximationThreshold;
+    }
+
+    /**
+     * Return the number of index bits of the approximated sets' sketches
+     */
+    public static int getApproximationPrecision() {
+        return approximationPrecision;
+    }
+
+    /**
+     * Return the hierarchy indexes consulted before loading superclasses with BCEL
+     */
+    public static List<HierarchyIndex> getHierarchyIndexes() {
+        return hierarchyIndexes;
+    }
+
+    /**
+     * Use the precomputed hierarchy indexes of the jars on the class path
+     * when resolving superclasses.  The index of each jar is looked up in
+     * the specified directory under the digest of the jar's contents;
+     * jars without an index are still loaded through BCEL.
+     * @see HierarchyIndex
+     */
+    public static void loadHierarchyIndexes(File dir) {
+        ArrayList<HierarchyIndex> indexes = new ArrayList<HierarchyIndex>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File jar = new File(entry);
+            if (!jar.isFile() || !entry.endsWith(".jar"))
+                continue;
+            try {
+                File file = HierarchyIndex.indexFile(dir, jar);
+                if (file.exists())
+                    indexes.add(new HierarchyIndex(file));
+            } catch (IOException e) {
+                System.err.println("Error loading hierarchy index of " + jar + ": " + e);
+            }
+        }
+        hierarchyIndexes = indexes;
+    }
+
     /**
      * Load and parse the specified class.
      * The class specification can be either a class file name, or
      * a jarfile, followed by space, followed by a class file name.
+     * Copies of a class already analysed in this container, identified
+     * by the digest of their contents, are skipped without being parsed.
      */
     static void processClass(ClassMetricsContainer cm, String clspec) {
+        processClass(cm, clspec, null);
+    }
+
+    /**
+     * Load and parse the specified class, reusing the results of a
+     * previous analysis for a byte-identical class.
+     * A class the previous container has analysed from the same bytes is
+     * not parsed; its visit's metrics are added to the container, which
+     * updates the NOC and Ca of the classes it is related to.
+     * Return true if the class's metrics were taken from the previous container.
+     * @param previous The container of the previous analysis; null if none
+     */
+    static boolean processClass(ClassMetricsContainer cm, String clspec, ClassMetricsContainer previous) {
+        byte[] classFile = readClass(clspec);
+        if (classFile == null)
+            return false;
+        return processClass(cm, classFile, clspec, classFileName(clspec), previous);
+    }
+
+    /**
+     * Load and parse a class file given by its path, which, unlike a
+     * class specification, may contain spaces.
+     */
+    static void processClass(ClassMetricsContainer cm, Path file) {
+        byte[] classFile = readClass(file);
+        if (classFile != null)
+            processClass(cm, classFile, file.toString(), file.toString(), null);
+    }
+
+    /**
+     * Analyse the contents of a class file, unless the container holds
+     * a copy, reusing the previous container's results if it analysed
+     * the same bytes.
+     * @param source The class specification or path of the class file
+     * @param fileName The name of the class file
+     */
+    private static boolean processClass(ClassMetricsContainer cm, byte[] classFile, String source,
+            String fileName, ClassMetricsContainer previous) {
+        ClassDigests digests = cm.getDigests();
+        ByteBuffer digest = ClassDigests.digest(classFile);
+        if (digests.isDuplicate(digest))
+            return false;
+        String name = previous == null ? null : previous.getDigests().getName(digest);
+        if (name != null) {
+            if (digests.register(name, digest, source))
+                cm.addVisited(name, previous.getMetrics(name));
+            return true;
+        }
+        JavaClass jc = parseClass(classFile, fileName);
+        if (jc != null && digests.register(jc.getClassName(), digest, source))
+            visitClass(cm, jc, classFile.length);
+        return false;
+    }
+
+    /**
+     * Read the contents of the specified class file.
+     * Return null if it could not be read.
+     */
+    static byte[] readClass(String clspec) {
         int spc;
-        JavaClass jc = null;
 
         if ((spc = clspec.indexOf(' ')) != -1) {
             String jar = clspec.substring(0, spc);
             clspec = clspec.substring(spc + 1);
-            try {
-                jc = new ClassParser(jar, clspec).parse();
+            try (ZipFile z = new ZipFile(jar)) {
+                ZipEntry entry = z.getEntry(clspec);
+                if (entry == null)
+                    throw new FileNotFoundException(clspec);
+                try (InputStream in = z.getInputStream(entry)) {
+                    return in.readAllBytes();
+                }
             } catch (IOException e) {
                 System.err.println("Error loading " + clspec + " from " + jar + ": " + e);
             }
-        } else {
-            try {
-                jc = new ClassParser(clspec).parse();
-            } catch (IOException e) {
-                System.err.println("Error loading " + clspec + ": " + e);
+        } else
+            return readClass(Paths.get(clspec));
+        return null;
+    }
+
+    /**
+     * Read the contents of a class file given by its path, which,
+     * unlike a class specification, may contain spaces.
+     * Return null if it could not be read.
+     */
+    static byte[] readClass(Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            System.err.println("Error loading " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /** Return the name of the class file a class specification designates */
+    static String classFileName(String clspec) {
+        return clspec.substring(clspec.indexOf(' ') + 1);
+    }
+
+    /**
+     * Parse the contents of the specified class file.
+     * Return the parsed class, or null if it is malformed.
+     * @param fileName The name of the class file, rather than a class
+     * specification, used in error messages
+     */
+    static JavaClass parseClass(byte[] classFile, String fileName) {
+        MetricsEvents.ClassParse event = new MetricsEvents.ClassParse();
+        event.begin();
+        try {
+            JavaClass jc = new ClassParser(new ByteArrayInputStream(classFile), fileName).parse();
+            if (event.shouldCommit()) {
+                event.set(jc, classFile.length);
+                event.commit();
             }
+            return jc;
+        } catch (IOException e) {
+            System.err.println("Error loading " + fileName + ": " + e);
+            return null;
         }
-        if (jc != null) {
-            ClassVisitor visitor = new ClassVisitor(jc, cm);
+    }
+
+    /**
+     * Visit a parsed class, updating the metrics in the container.
+     * If the visit exceeds the class budget it is abandoned, the metrics
+     * gathered so far are kept, and the class is marked as partial.
+     * @param classFileSize The size of the class file, reported in
+     * the visit's flight recorder events
+     */
+    static void visitClass(ClassMetricsContainer cm, JavaClass jc, int classFileSize) {
+        MetricsEvents.ClassVisit event = new MetricsEvents.ClassVisit();
+        event.begin();
+        ClassVisitor visitor = new ClassVisitor(jc, cm);
+        ClassBudget budget = new ClassBudget(classTimeBudget, classInstructionBudget);
+        visitor.setBudget(budget);
+        visitor.setClassFileSize(classFileSize);
+        try {
             visitor.start();
+        } catch (BudgetExceededException e) {
+            visitor.getMetrics().setPartial(e.getMessage() + " after " + budget.elapsedMillis() + " ms");
+        }
+        try {
             visitor.end();
+        } catch (BudgetExceededException e) {
+            if (!visitor.getMetrics().isPartial())
+                visitor.getMetrics().setPartial(e.getMessage() + " after " + budget.elapsedMillis() + " ms");
+        }
+        if (event.shouldCommit()) {
+            event.set(jc, classFileSize);
+            event.commit();
         }
     }
 
@@ -102,11 +438,43 @@ public class MetricsFilter {
      * @param outputHandler An implementation of the CkjmOutputHandler interface
      */
     public static void runMetrics(String[] files, CkjmOutputHandler outputHandler) {
+        runMetrics(files, outputHandler, null);
+    }
+
+    /**
+     * The interface for other Java based applications that also
+     * require package-level aggregate metrics.
+     *
+     * @param files          Class files to be analyzed
+     * @param outputHandler  An implementation of the CkjmOutputHandler interface
+     * @param packageHandler An implementation of the CkjmPackageOutputHandler
+     *                       interface; null if package metrics are not required
+     */
+    public static void runMetrics(String[] files, CkjmOutputHandler outputHandler,
+                                  CkjmPackageOutputHandler packageHandler) {
+        runMetrics(files, outputHandler, packageHandler, null);
+    }
+
+    /**
+     * The interface for other Java based applications that only
+     * require the classes chosen by a selection.
+     *
+     * @param files          Class files to be analyzed
+     * @param outputHandler  An implementation of the CkjmOutputHandler interface
+     * @param packageHandler An implementation of the CkjmPackageOutputHandler
+     *                       interface; null if package metrics are not required
+     * @param selection      The thresholds, top-K limits and ordering of the
+     *                       reported classes; null to report all classes
+     */
+    public static void runMetrics(String[] files, CkjmOutputHandler outputHandler,
+                                  CkjmPackageOutputHandler packageHandler, MetricsSelection selection) {
         ClassMetricsContainer cm = new ClassMetricsContainer();
 
         for (int i = 0; i < files.length; i++)
             processClass(cm, files[i]);
-        cm.printMetrics(outputHandler);
+        cm.getDigests().report(System.err);
+        cm.printQuarantine(System.err);
+        cm.printMetrics(outputHandler, packageHandler, selection);
     }
 
     /**
@@ -115,33 +483,221 @@ public class MetricsFilter {
      */
     public static void main(String[] argv) {
         int argp = 0;
+        boolean packageMetrics = false;
+        boolean watch = false;
+        boolean merge = false;
+        boolean diff = false;
+        int shard = 0, shards = 1;
+        File partialFile = null;
+        File indexFile = null;
+        MetricsSelection selection = new MetricsSelection();
+        double approximationError = 0;
+        int threshold = 1000;
 
-        if (argv.length > argp && argv[argp].equals("-s")) {
-            includeJdk = true;
-            argp++;
+        for (; argv.length > argp && argv[argp].startsWith("-"); argp++) {
+            if (argv[argp].equals("-s"))
+                includeJdk = true;
+            else if (argv[argp].equals("-p"))
+                onlyPublic = true;
+            else if (argv[argp].equals("-g"))
+                packageMetrics = true;
+            else if (argv[argp].equals("-c"))
+                reportCycles = true;
+            else if (argv[argp].equals("-w"))
+                watch = true;
+            else if (argv[argp].equals("-merge"))
+                merge = true;
+            else if (argv[argp].equals("-diff"))
+                diff = true;
+            else if (argv[argp].equals("-i") && argv.length > argp + 1)
+                indexFile = new File(argv[++argp]);
+            else if (argv[argp].equals("-h") && argv.length > argp + 1)
+                loadHierarchyIndexes(new File(argv[++argp]));
+            else if ((argv[argp].equals("-metrics") || argv[argp].equals("--metrics")) &&
+                    argv.length > argp + 1) {
+                ArrayList<Metric> metrics = new ArrayList<Metric>();
+                try {
+                    for (String name : argv[++argp].split(","))
+                        metrics.add(Metric.parse(name));
+                    selectMetrics(metrics);
+                } catch (IllegalArgumentException e) {
+                    usage();
+                }
+            } else if ((argv[argp].equals("-budget-ms") || argv[argp].equals("-budget-insns")) &&
+                    argv.length > argp + 1) {
+                try {
+                    long limit = Long.parseLong(argv[argp + 1]);
+                    if (argv[argp].equals("-budget-ms"))
+                        classTimeBudget = limit;
+                    else
+                        classInstructionBudget = limit;
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+                argp++;
+            } else if ((argv[argp].equals("-approx") || argv[argp].equals("-approx-threshold")) &&
+                    argv.length > argp + 1) {
+                try {
+                    if (argv[argp].equals("-approx"))
+                        approximationError = Double.parseDouble(argv[argp + 1]);
+                    else
+                        threshold = Integer.parseInt(argv[argp + 1]);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+                argp++;
+            } else if (argv[argp].equals("-o"))
+                selection.setSorted();
+            else if ((argv[argp].equals("-t") || argv[argp].equals("-k")) && argv.length > argp + 1) {
+                try {
+                    selection.parse(argv[argp + 1], argv[argp].equals("-k"));
+                } catch (IllegalArgumentException e) {
+                    usage();
+                }
+                argp++;
+            }
+            else if (argv[argp].equals("-shard") && argv.length > argp + 2) {
+                String[] slice = argv[++argp].split("/");
+                partialFile = new File(argv[++argp]);
+                try {
+                    shard = Integer.parseInt(slice[0]);
+                    shards = Integer.parseInt(slice[1]);
+                } catch (RuntimeException e) {
+                    shards = 0;
+                }
+                if (shards <= 0 || shard < 0 || shard >= shards)
+                    usage();
+            } else
+                usage();
         }
-        if (argv.length > argp && argv[argp].equals("-p")) {
-            onlyPublic = true;
-            argp++;
+        if (approximationError != 0) {
+            /* Approximated sets lose the coupling edges these modes rely on */
+            if (watch || diff || partialFile != null || indexFile != null || reportCycles) {
+                System.err.println("-approx cannot be combined with -w, -diff, -shard, -i or -c");
+                System.exit(1);
+            }
+            try {
+                setApproximation(approximationError, threshold);
+            } catch (IllegalArgumentException e) {
+                usage();
+            }
+        }
+        setCouplingsRequired(packageMetrics || indexFile != null || partialFile != null);
+        if (diff) {
+            if (argv.length - argp != 2)
+                usage();
+            try {
+                new MetricsDiff().run(new File(argv[argp]), new File(argv[argp + 1]), System.out);
+            } catch (IOException e) {
+                System.err.println("Error reading class list: " + e);
+                System.exit(1);
+            }
+            return;
+        }
+        if (watch) {
+            if (packageMetrics || !selection.isEmpty()) {
+                System.err.println("-w cannot be combined with -g, -t, -k or -o");
+                System.exit(1);
+            }
+            watch(Arrays.copyOfRange(argv, argp, argv.length));
+            return;
         }
         ClassMetricsContainer cm = new ClassMetricsContainer();
 
-        if (argv.length == argp) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        if (merge) {
+            for (int i = argp; i < argv.length; i++) {
+                try {
+                    PartialResults.read(cm, new File(argv[i]));
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error merging " + argv[i] + ": " + e);
+                    System.exit(1);
+                }
+            }
+        } else {
+            if (argv.length == argp) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+                try {
+                    String s;
+                    while ((s = in.readLine()) != null)
+                        if (inShard(s, shard, shards))
+                            processClass(cm, s);
+                } catch (Exception e) {
+                    System.err.println("Error reading line: " + e);
+                    System.exit(1);
+                }
+            }
+
+            for (int i = argp; i < argv.length; i++)
+                if (inShard(argv[i], shard, shards))
+                    processClass(cm, argv[i]);
+            cm.getDigests().report(System.err);
+        }
+        cm.printQuarantine(System.err);
+
+        if (partialFile != null) {
             try {
-                String s;
-                while ((s = in.readLine()) != null)
-                    processClass(cm, s);
-            } catch (Exception e) {
-                System.err.println("Error reading line: " + e);
+                PartialResults.write(cm, partialFile);
+            } catch (IOException e) {
+                System.err.println("Error writing " + partialFile + ": " + e);
+                System.exit(1);
+            }
+            return;
+        }
+        if (indexFile != null) {
+            try (WriteIndexResults index = new WriteIndexResults(indexFile)) {
+                cm.printMetrics(index, null, selection);
+            } catch (IOException e) {
+                System.err.println("Error writing " + indexFile + ": " + e);
                 System.exit(1);
             }
+            return;
         }
+        PrintPlainResults handler = new PrintPlainResults(System.out);
+        cm.printMetrics(handler, packageMetrics ? handler : null, selection);
+    }
 
-        for (int i = argp; i < argv.length; i++)
-            processClass(cm, argv[i]);
+    /**
+     * Return true if the specified class belongs to the given shard.
+     * Classes are assigned to shards by the hash of their class file name
+     * (the jar file name is ignored), so that every process given the
+     * same inputs selects the same disjoint slice.
+     */
+    static boolean inShard(String clspec, int shard, int shards) {
+        String classFile = clspec.substring(clspec.indexOf(' ') + 1);
+        return Math.floorMod(classFile.hashCode(), shards) == shard;
+    }
 
-        CkjmOutputHandler handler = new PrintPlainResults(System.out);
-        cm.printMetrics(handler);
+    /** Print the command line usage and exit. */
+    private static void usage() {
+        System.err.println("Usage: MetricsFilter [-s] [-p] [-g] [-c] [-h index-dir] [--metrics metric,...] [-budget-ms n] [-budget-insns n] [-o]");
+        System.err.println("                     [-t metric=threshold] [-k metric=count] [-approx error [-approx-threshold n]]");
+        System.err.println("                     [-i index-file] [-shard i/n partial-file] [class ...]");
+        System.err.println("       MetricsFilter [-s] [-p] [-c] [-h index-dir] [--metrics metric,...] -w directory ...");
+        System.err.println("       MetricsFilter [-s] [-p] [-h index-dir] [--metrics metric,...] -diff old-class-list new-class-list");
+        System.err.println("       MetricsFilter [-p] [-g] [-c] [--metrics metric,...] [-o] [-t metric=threshold] [-k metric=count]");
+        System.err.println("                     [-i index-file] -merge partial-file ...");
+        System.exit(1);
+    }
+
+    /**
+     * Watch the specified build output directories, printing the
+     * metrics of their classes whenever class files change.
+     */
+    private static void watch(String[] dirs) {
+        if (dirs.length == 0) {
+            System.err.println("Usage: -w directory ...");
+            System.exit(1);
+        }
+        try {
+            MetricsWatcher w = new MetricsWatcher(new PrintPlainResults(System.out));
+            for (String dir : dirs)
+                w.register(Paths.get(dir));
+            w.run();
+        } catch (IOException e) {
+            System.err.println("Error watching directories: " + e);
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
@@ -0,0 +1,213 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Query the index of a run's results written by WriteIndexResults.
+ * The index file is memory mapped, so queries only touch the pages
+ * they need rather than loading the results onto the heap.
+ * <p>
+ * The file consists of (all integers are big-endian):
+ * <ul>
+ * <li>a header: magic number, number of names N, number of reported
+ * classes R, number of metrics K;</li>
+ * <li>the name dictionary: N + 1 offsets into the sorted UTF-8 names
+ * that follow, padded to a multiple of four bytes;</li>
+ * <li>K metric columns of N floats, NaN for classes that were coupled
+ * to but not reported;</li>
+ * <li>K columns of R name ids, sorted by decreasing metric value;</li>
+ * <li>the afferent and then the efferent adjacency lists, each as
+ * N + 1 offsets followed by the name ids.  The afferent lists cover
+ * every name, including classes that were coupled to but not reported;
+ * the efferent lists only the reported classes.</li>
+ * </ul>
+ *
+ * @see WriteIndexResults
+ */
+public class MetricsIndex {
+    /** The index file's magic number and version */
+    static final long MAGIC = 0x434b4a4d49445801L;	// "CKJMIDX" 1
+
+    /** The mapped index */
+    private ByteBuffer b;
+    /** Number of names in the dictionary */
+    private int n;
+    /** Number of reported classes */
+    private int r;
+    /** Number of metrics */
+    private int k;
+    /** Position of the name offsets and of the names */
+    private int nameOffsets, namesStart;
+    /** Position of the metric columns and of the sorted columns */
+    private int columns, sorted;
+    /** Position of the afferent and efferent adjacency lists */
+    private int afferent, efferent;
+
+    /** Map an index file */
+    public MetricsIndex(File file) throws IOException {
+	try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+	    b = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+	}
+	if (b.limit() < 20 || b.getLong(0) != MAGIC)
+	    throw new IOException(file + ": not a ckjm metrics index");
+	n = b.getInt(8);
+	r = b.getInt(12);
+	k = b.getInt(16);
+	if (k != Metric.values().length)
+	    throw new IOException(file + ": index has " + k + " metrics");
+	nameOffsets = 20;
+	namesStart = nameOffsets + 4 * (n + 1);
+	int namesLength = b.getInt(nameOffsets + 4 * n);
+	columns = namesStart + (namesLength + 3) / 4 * 4;
+	sorted = columns + 4 * k * n;
+	afferent = sorted + 4 * k * r;
+	efferent = afferent + 4 * (n + 1) + 4 * b.getInt(afferent + 4 * n);
+    }
+
+    /** Return the number of classes reported in the index */
+    public int size() { return r; }
+
+    /** Return the class name with the given id */
+    private String name(int id) {
+	int start = b.getInt(nameOffsets + 4 * id);
+	int end = b.getInt(nameOffsets + 4 * (id + 1));
+	byte[] bytes = new byte[end - start];
+	ByteBuffer d = b.duplicate();
+	d.position(namesStart + start);
+	d.get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return the id of a class name, or -1 if it is not in the index */
+    private int find(String name) {
+	int lo = 0, hi = n - 1;
+	while (lo <= hi) {
+	    int mid = (lo + hi) >>> 1;
+	    int c = name(mid).compareTo(name);
+	    if (c < 0)
+		lo = mid + 1;
+	    else if (c > 0)
+		hi = mid - 1;
+	    else
+		return mid;
+	}
+	return -1;
+    }
+
+    /** Return the value of a metric for the class with the given id */
+    private float value(Metric m, int id) {
+	return b.getFloat(columns + 4 * (m.ordinal() * n + id));
+    }
+
+    /** Return the value of a metric for a class; NaN if the class was not reported */
+    public float value(Metric m, String name) {
+	int id = find(name);
+	return id == -1 ? Float.NaN : value(m, id);
+    }
+
+    /**
+     * Return the classes with the highest values of a metric, highest first.
+     * @param pkg Restrict the results to the classes of this package;
+     * null for all classes
+     */
+    public List<String> top(Metric m, int count, String pkg) {
+	ArrayList<String> result = new ArrayList<String>();
+	int column = sorted + 4 * m.ordinal() * r;
+	for (int i = 0; i < r && result.size() < count; i++) {
+	    String name = name(b.getInt(column + 4 * i));
+	    if (pkg == null || ClassMetrics.packageName(name).equals(pkg))
+		result.add(name);
+	}
+	return result;
+    }
+
+    /** Return the classes whose value of a metric exceeds a threshold, highest first */
+    public List<String> above(Metric m, float threshold) {
+	ArrayList<String> result = new ArrayList<String>();
+	int column = sorted + 4 * m.ordinal() * r;
+	for (int i = 0; i < r; i++) {
+	    int id = b.getInt(column + 4 * i);
+	    if (!(value(m, id) > threshold))
+		break;
+	    result.add(name(id));
+	}
+	return result;
+    }
+
+    /** Return the classes that depend on a class */
+    public List<String> afferent(String name) {
+	return adjacent(afferent, name);
+    }
+
+    /** Return the classes a class depends on */
+    public List<String> efferent(String name) {
+	return adjacent(efferent, name);
+    }
+
+    /** Return the names listed for a class in an adjacency list */
+    private List<String> adjacent(int list, String name) {
+	ArrayList<String> result = new ArrayList<String>();
+	int id = find(name);
+	if (id == -1)
+	    return result;
+	int start = b.getInt(list + 4 * id);
+	int end = b.getInt(list + 4 * (id + 1));
+	int ids = list + 4 * (n + 1);
+	for (int i = start; i < end; i++)
+	    result.add(name(b.getInt(ids + 4 * i)));
+	return result;
+    }
+
+    /**
+     * Answer a query from the command line.
+     * Usage: MetricsIndex index-file top metric count [package]
+     *        | above metric threshold | afferent class | efferent class
+     */
+    public static void main(String[] argv) {
+	try {
+	    MetricsIndex index = new MetricsIndex(new File(argv[0]));
+	    String query = argv[1];
+	    if (query.equals("top") || query.equals("above")) {
+		Metric m = Metric.parse(argv[2]);
+		List<String> result = query.equals("top") ?
+		    index.top(m, Integer.parseInt(argv[3]), argv.length > 4 ? argv[4] : null) :
+		    index.above(m, Float.parseFloat(argv[3]));
+		for (String name : result)
+		    System.out.println(name + " " + index.value(m, name));
+	    } else if (query.equals("afferent") || query.equals("efferent")) {
+		List<String> result = query.equals("afferent") ?
+		    index.afferent(argv[2]) : index.efferent(argv[2]);
+		for (String name : result)
+		    System.out.println(name);
+	    } else
+		throw new IllegalArgumentException(query);
+	} catch (IOException e) {
+	    System.err.println("Error reading index: " + e);
+	    System.exit(1);
+	} catch (RuntimeException e) {
+	    System.err.println("Usage: MetricsIndex index-file top metric count [package]");
+	    System.err.println("       MetricsIndex index-file above metric threshold");
+	    System.err.println("       MetricsIndex index-file afferent|efferent class");
+	    System.exit(1);
+	}
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.util.*;
+
+/**
+ * The selection of the classes to report, applied by
+ * ClassMetricsContainer while it hands the classes to the output handler.
+ * A class is reported if its value of every thresholded metric exceeds
+ * the threshold and, when top-K limits are set, if it is among the K
+ * classes with the highest value of at least one limited metric.
+ * Ties are broken by class name, so the selection is deterministic.
+ * When top-K limits are set, classes are reported ranked by the values
+ * of the limited metrics, highest first, taken in the order of Metric
+ * and followed by the class name to break ties.  Otherwise classes are
+ * reported in class name order if sorting is requested, and in
+ * arbitrary order if not.
+ *
+ * @see ClassMetricsContainer#printMetrics
+ */
+public class MetricsSelection {
+    /** Values each reported class must exceed */
+    private EnumMap<Metric, Float> thresholds = new EnumMap<Metric, Float>(Metric.class);
+    /** Number of classes with the highest values to report */
+    private EnumMap<Metric, Integer> limits = new EnumMap<Metric, Integer>(Metric.class);
+    /** True if the classes are reported in name order */
+    private boolean sorted;
+    /** The bounded heaps of the top-K limits, while a report is gathered */
+    private EnumMap<Metric, PriorityQueue<Candidate>> heaps;
+    /** The classes of a sorted report without top-K limits */
+    private ArrayList<Candidate> all;
+
+    /** Report only classes whose value of a metric exceeds the threshold */
+    public void addThreshold(Metric m, float threshold) { thresholds.put(m, threshold); }
+    /** Report the count classes with the highest values of a metric */
+    public void addTopK(Metric m, int count) { limits.put(m, count); }
+    /** Report the classes in name order */
+    public void setSorted() { sorted = true; }
+
+    /**
+     * Parse a metric=value command line argument, such as CBO=20,
+     * into a threshold or top-K limit.
+     */
+    void parse(String spec, boolean topK) {
+	int eq = spec.indexOf('=');
+	if (eq == -1)
+	    throw new IllegalArgumentException(spec);
+	Metric m = Metric.parse(spec.substring(0, eq));
+	if (topK)
+	    addTopK(m, Integer.parseInt(spec.substring(eq + 1)));
+	else
+	    addThreshold(m, Float.parseFloat(spec.substring(eq + 1)));
+    }
+
+    /** Return true if no class is filtered out and the order is left arbitrary */
+    boolean isEmpty() { return thresholds.isEmpty() && limits.isEmpty() && !sorted; }
+
+    /** Return true if classes can be reported as they are encountered */
+    boolean isStreaming() { return limits.isEmpty() && !sorted; }
+
+    /** Return true if a class passes the thresholds */
+    boolean accepts(ClassMetrics c) {
+	for (Map.Entry<Metric, Float> t : thresholds.entrySet())
+	    if (!(t.getKey().value(c) > t.getValue()))
+		return false;
+	return true;
+    }
+
+    /** A class competing for a place in the top-K heaps */
+    private static class Candidate {
+	final String name;
+	final ClassMetrics metrics;
+	/** The values of the limited metrics, in the order of Metric */
+	final float[] values;
+
+	Candidate(String name, ClassMetrics metrics, float[] values) {
+	    this.name = name;
+	    this.metrics = metrics;
+	    this.values = values;
+	}
+    }
+
+    /**
+     * Return the order of the heap of the k-th limited metric, with the
+     * least wanted candidate, the one evicted first, at the head
+     */
+    private static Comparator<Candidate> evictionOrder(int k) {
+	return Comparator.<Candidate>comparingDouble(c -> c.values[k])
+	    .thenComparing(c -> c.name, Comparator.reverseOrder());
+    }
+
+    /** Prepare to gather the classes of a report */
+    void start() {
+	heaps = new EnumMap<Metric, PriorityQueue<Candidate>>(Metric.class);
+	int k = 0;
+	for (Metric m : limits.keySet())
+	    heaps.put(m, new PriorityQueue<Candidate>(evictionOrder(k++)));
+	all = new ArrayList<Candidate>();
+    }
+
+    /** Gather a class that passed the thresholds */
+    void add(String name, ClassMetrics c) {
+	if (limits.isEmpty()) {
+	    all.add(new Candidate(name, c, new float[0]));
+	    return;
+	}
+	/* Each value is computed once; the heaps and the final sort compare the stored ones */
+	float[] values = new float[limits.size()];
+	int k = 0;
+	for (Metric m : limits.keySet())
+	    values[k++] = m.value(c);
+	Candidate candidate = new Candidate(name, c, values);
+	for (Map.Entry<Metric, Integer> l : limits.entrySet()) {
+	    PriorityQueue<Candidate> heap = heaps.get(l.getKey());
+	    if (heap.size() < l.getValue())
+		heap.add(candidate);
+	    else if (l.getValue() > 0 && heap.comparator().compare(candidate, heap.peek()) > 0) {
+		heap.poll();
+		heap.add(candidate);
+	    }
+	}
+    }
+
+    /** Pass the gathered classes to the handler in ranking or name order */
+    void finish(CkjmOutputHandler handler) {
+	Candidate[] selected;
+	Comparator<Candidate> order = Comparator.comparing(c -> c.name);
+	if (limits.isEmpty())
+	    selected = all.toArray(new Candidate[0]);
+	else {
+	    HashMap<String, Candidate> union = new HashMap<String, Candidate>();
+	    for (PriorityQueue<Candidate> heap : heaps.values())
+		for (Candidate c : heap)
+		    union.put(c.name, c);
+	    selected = union.values().toArray(new Candidate[0]);
+	    order = rankingOrder();
+	}
+	Arrays.parallelSort(selected, order);
+	for (Candidate c : selected)
+	    ClassMetricsContainer.emit(handler, c.name, c.metrics);
+	heaps = null;
+	all = null;
+    }
+
+    /** Return the order of the top-K report: by the limited metrics, highest first, then by name */
+    private Comparator<Candidate> rankingOrder() {
+	Comparator<Candidate> order = null;
+	for (int k = 0; k < limits.size(); k++) {
+	    int metric = k;
+	    Comparator<Candidate> byMetric =
+		Comparator.<Candidate>comparingDouble(c -> c.values[metric]).reversed();
+	    order = order == null ? byMetric : order.thenComparing(byMetric);
+	}
+	return order.thenComparing(c -> c.name);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.ClassFormatException;
+import org.apache.bcel.classfile.JavaClass;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keep the metrics of the classes in a set of build output directories
+ * current while they are being recompiled.
+ * The metrics container and BCEL's class repository stay in memory;
+ * when a class file changes, the contributions its previous version made
+ * to other classes are retracted, only the changed class is visited
+ * again, and the rows of the classes whose metrics were affected are
+ * passed to the output handler.  The visited subclasses of a changed
+ * class are visited again as well, because their DIT depends on its
+ * superclass chain.  When cycles are reported, the rows of
+ * the classes whose cycle changed are passed as well.
+ * Rows are not emitted for deleted classes.
+ *
+ * @see ClassMetricsContainer#retract
+ */
+public class MetricsWatcher {
+    /** Time to wait for further events of the same compilation, in ms */
+    private static final long SETTLE_MILLIS = 20;
+
+    /** The metrics of all watched classes */
+    private ClassMetricsContainer cm = new ClassMetricsContainer();
+    /** The handler receiving the updated rows */
+    private CkjmOutputHandler handler;
+    /** The service reporting directory changes */
+    private WatchService watcher;
+    /** The directory corresponding to each watch key */
+    private HashMap<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+    /** The name of the class stored in each visited class file */
+    private HashMap<Path, String> classNames = new HashMap<Path, String>();
+
+    public MetricsWatcher(CkjmOutputHandler handler) throws IOException {
+	this.handler = handler;
+	watcher = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watch a directory tree and visit the class files it contains.
+     * The initial metrics are reported by run().
+     */
+    public void register(Path root) throws IOException {
+	Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+	    @Override
+	    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+		keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+		return FileVisitResult.CONTINUE;
+	    }
+
+	    @Override
+	    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+		if (isClassFile(file))
+		    update(file, new HashSet<String>());
+		return FileVisitResult.CONTINUE;
+	    }
+	});
+    }
+
+    /**
+     * Report the metrics of all watched classes and then keep reporting
+     * updated metrics as class files change, until interrupted.
+     */
+    public void run() throws IOException, InterruptedException {
+	cm.printMetrics(handler);
+	for (;;) {
+	    LinkedHashSet<Path> changed = new LinkedHashSet<Path>();
+	    WatchKey key = watcher.take();
+	    /* Coalesce the events of a compilation writing many files */
+	    do {
+		collectChanges(key, changed);
+	    } while ((key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+
+	    HashSet<String> affected = new HashSet<String>();
+	    HashSet<String> changedClasses = new HashSet<String>();
+	    for (Path file : changed) {
+		String oldName = classNames.get(file);
+		if (oldName != null)
+		    changedClasses.add(oldName);
+		update(file, affected);
+		String name = classNames.get(file);
+		if (name != null)
+		    changedClasses.add(name);
+	    }
+	    updateDescendants(changedClasses, affected);
+	    if (MetricsFilter.areCyclesReported())
+		findCycles(affected);
+	    for (String name : affected) {
+		ClassMetrics c = cm.getMetrics(name);
+		if (c.isVisited() && (MetricsFilter.includeAll() || c.isPublic()))
+		    ClassMetricsContainer.emit(handler, name, c);
+	    }
+	}
+    }
+
+    /**
+     * Recompute the dependency cycles, adding to affected the classes
+     * whose cycle number or size changed, as cycles are renumbered when
+     * one appears or disappears.
+     */
+    private void findCycles(Set<String> affected) {
+	HashMap<String, Long> before = new HashMap<String, Long>();
+	for (Map.Entry<String, ClassMetrics> e : cm.classes().entrySet())
+	    if (e.getValue().isVisited())
+		before.put(e.getKey(), cycleOf(e.getValue()));
+	cm.findCycles();
+	for (Map.Entry<String, ClassMetrics> e : cm.classes().entrySet())
+	    if (e.getValue().isVisited() && !Long.valueOf(cycleOf(e.getValue())).equals(before.get(e.getKey())))
+		affected.add(e.getKey());
+    }
+
+    /** Return a class's cycle number and size combined in one value */
+    private static long cycleOf(ClassMetrics c) {
+	return (long)c.getCycle() << 32 | c.getCycleSize();
+    }
+
+    /** Add the class files changed according to a key's events */
+    private void collectChanges(WatchKey key, Set<Path> changed) throws IOException {
+	Path dir = keys.get(key);
+	for (WatchEvent<?> event : key.pollEvents()) {
+	    if (event.kind() == OVERFLOW || dir == null)
+		continue;
+	    Path file = dir.resolve((Path)event.context());
+	    if (event.kind() == ENTRY_CREATE && Files.isDirectory(file))
+		register(file);
+	    else if (isClassFile(file))
+		changed.add(file);
+	}
+	if (!key.reset())
+	    keys.remove(key);
+    }
+
+    /**
+     * Bring the metrics up to date with the current contents of a class
+     * file, adding to affected the names of the classes whose metrics
+     * changed.
+     */
+    private void update(Path file, Set<String> affected) {
+	String oldName = classNames.remove(file);
+	if (oldName != null) {
+	    addNeighbours(oldName, affected);
+	    cm.retract(oldName);
+	    evict(oldName);
+	}
+	if (!Files.exists(file))
+	    return;
+
+	byte[] classFile = MetricsFilter.readClass(file);
+	if (classFile == null)
+	    return;
+	JavaClass jc;
+	try {
+	    jc = MetricsFilter.parseClass(classFile, file.toString());
+	} catch (ClassFormatException e) {
+	    /* Partially written; a later event will report the complete file */
+	    return;
+	}
+	if (jc == null)
+	    return;
+	String name = jc.getClassName();
+	cm.retract(name);
+	evict(name);
+	MetricsFilter.visitClass(cm, jc, classFile.length);
+	classNames.put(file, name);
+	affected.add(name);
+	addNeighbours(name, affected);
+    }
+
+    /**
+     * Visit again the classes inheriting, directly or through other
+     * visited classes, from the changed classes, as their DIT counts the
+     * changed classes' superclasses, adding their names to affected.
+     */
+    private void updateDescendants(Set<String> changedClasses, Set<String> affected) {
+	ArrayList<Path> descendants = new ArrayList<Path>();
+	for (Map.Entry<Path, String> e : classNames.entrySet())
+	    if (!changedClasses.contains(e.getValue()) && inherits(e.getValue(), changedClasses))
+		descendants.add(e.getKey());
+	for (Path file : descendants)
+	    update(file, affected);
+    }
+
+    /** Return true if a visited class inherits from one of the ancestors */
+    private boolean inherits(String name, Set<String> ancestors) {
+	HashSet<String> seen = new HashSet<String>();
+	for (ClassMetrics c = cm.classes().get(name); c != null && c.getSuperClassName() != null; ) {
+	    String superName = c.getSuperClassName();
+	    if (ancestors.contains(superName))
+		return true;
+	    if (!seen.add(superName))
+		return false;
+	    c = cm.classes().get(superName);
+	}
+	return false;
+    }
+
+    /** Add a class's superclass and the classes it uses to affected */
+    private void addNeighbours(String name, Set<String> affected) {
+	ClassMetrics c = cm.getMetrics(name);
+	if (c.getSuperClassName() != null)
+	    affected.add(c.getSuperClassName());
+	affected.addAll(c.getEfferentCoupledClasses());
+    }
+
+    /** Remove a stale copy of a class from BCEL's class repository */
+    private static void evict(String name) {
+	JavaClass cached = Repository.getRepository().findClass(name);
+	if (cached != null)
+	    Repository.removeClass(cached);
+    }
+
+    /** Return true if the path names a class file */
+    private static boolean isClassFile(Path file) {
+	return file.getFileName().toString().endsWith(".class");
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.util.HashMap;
+
+/**
+ * Store the aggregate metrics of a package.
+ * The package's afferent and efferent couplings are updated incrementally
+ * by ClassMetricsContainer as class couplings are registered; the rollup
+ * of its classes' CK metrics is gathered while the class metrics are
+ * printed.
+ *
+ * @see ClassMetricsContainer
+ */
+public class PackageMetrics {
+    /** Number of visited classes in the package */
+    private int classes;
+    /** Number of abstract classes and interfaces in the package */
+    private int abstractClasses;
+    /** Sum of the classes' weighted methods per class */
+    private float wmc;
+    /** Maximum depth of inheritance tree of the package's classes */
+    private int maxDit;
+    /** Sum of the classes' number of children */
+    private int noc;
+    /** Sum of the classes' coupling between object classes */
+    private int cbo;
+    /** Sum of the classes' response for a class */
+    private int rfc;
+    /** Sum of the classes' lack of cohesion in methods */
+    private int lcom;
+    /** Sum of the classes' number of public methods */
+    private int npm;
+    /**
+     * Classes outside the package that use classes of the package.
+     * The value counts the couplings through which a class is related to
+     * the package, so that a coupling can later be retracted.
+     */
+    private HashMap<String, Integer> afferentCoupledClasses = new HashMap<String, Integer>();
+    /** Classes outside the package used by classes of the package */
+    private HashMap<String, Integer> efferentCoupledClasses = new HashMap<String, Integer>();
+    /** The dependency cycle the package belongs to; 0 if none */
+    private int cycle;
+    /** Number of packages in the package's strongly connected component */
+    private int cycleSize = 1;
+
+    /** Add a class outside the package that depends on the package */
+    void addAfferentCoupling(String name) { afferentCoupledClasses.merge(name, 1, Integer::sum); }
+    /** Add a class outside the package on which the package depends */
+    void addEfferentCoupling(String name) { efferentCoupledClasses.merge(name, 1, Integer::sum); }
+    /** Retract a coupling previously added through addAfferentCoupling */
+    void removeAfferentCoupling(String name) { retract(afferentCoupledClasses, name); }
+    /** Retract a coupling previously added through addEfferentCoupling */
+    void removeEfferentCoupling(String name) { retract(efferentCoupledClasses, name); }
+
+    /** Decrement a class's coupling count, removing it when it drops to zero */
+    private static void retract(HashMap<String, Integer> couplings, String name) {
+	couplings.computeIfPresent(name, (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    /** Clear the rollup of the classes' metrics */
+    void clearRollup() {
+	classes = abstractClasses = 0;
+	wmc = 0;
+	maxDit = noc = cbo = rfc = lcom = npm = 0;
+    }
+
+    /** Add the metrics of one of the package's classes to the rollup */
+    void addClass(ClassMetrics c) {
+	classes++;
+	if (c.isAbstract())
+	    abstractClasses++;
+	wmc += c.getWmc();
+	maxDit = Math.max(maxDit, c.getDit());
+	noc += c.getNoc();
+	cbo += c.getCbo();
+	rfc += c.getSrfc() + c.getDrfc();
+	lcom += c.getLcom();
+	npm += c.getNpm();
+    }
+
+    /** Return the number of visited classes in the package */
+    public int getClasses() { return classes; }
+    /** Return the number of abstract classes and interfaces in the package */
+    public int getAbstractClasses() { return abstractClasses; }
+    /** Return the sum of the classes' weighted methods per class */
+    public float getWmc() { return wmc; }
+    /** Return the maximum depth of inheritance tree of the package's classes */
+    public int getMaxDit() { return maxDit; }
+    /** Return the sum of the classes' number of children */
+    public int getNoc() { return noc; }
+    /** Return the sum of the classes' coupling between object classes */
+    public int getCbo() { return cbo; }
+    /** Return the sum of the classes' response for a class */
+    public int getRfc() { return rfc; }
+    /** Return the sum of the classes' lack of cohesion in methods */
+    public int getLcom() { return lcom; }
+    /** Return the sum of the classes' number of public methods */
+    public int getNpm() { return npm; }
+
+    /** Set the dependency cycle the package belongs to and the cycle's number of packages */
+    void setCycle(int id, int size) { cycle = id; cycleSize = size; }
+    /** Return the dependency cycle the package belongs to; 0 if none */
+    public int getCycle() { return cycle; }
+    /** Return the number of packages in the package's dependency cycle; 1 if none */
+    public int getCycleSize() { return cycleSize; }
+
+    /** Return the package's afferent couplings */
+    public int getCa() { return afferentCoupledClasses.size(); }
+    /** Return the package's efferent couplings */
+    public int getCe() { return efferentCoupledClasses.size(); }
+
+    /** Return the package's instability, Ce / (Ca + Ce) */
+    public float getInstability() {
+	int total = getCa() + getCe();
+	return total == 0 ? 0 : (float)getCe() / total;
+    }
+
+    /** Return the package's abstractness, abstract classes / classes */
+    public float getAbstractness() {
+	return classes == 0 ? 0 : (float)abstractClasses / classes;
+    }
+
+    /** Return the package's distance from the main sequence, |A + I - 1| */
+    public float getDistance() {
+	return Math.abs(getAbstractness() + getInstability() - 1);
+    }
+
+    /** Return the package metrics as a space-separated string */
+    public String toString() {
+	return (
+		classes +
+		" " + abstractClasses +
+		" " + getCa() +
+		" " + getCe() +
+		" " + getInstability() +
+		" " + getAbstractness() +
+		" " + getDistance() +
+		" " + wmc +
+		" " + maxDit +
+		" " + noc +
+		" " + cbo +
+		" " + rfc +
+		" " + lcom +
+		" " + npm
+		);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Read and write the partial results of an analysis shard.
+ * A partial results file holds, for each class the shard visited, the
+ * metrics obtained by the visit together with its superclass link and
+ * its efferent couplings.  Merging any number of partial files into one
+ * container recomputes the NOC and Ca metrics, which depend on classes
+ * visited by other shards.
+ * <p>
+ * The file is line oriented.  A class line has the form
+ * <pre>C name superclass flags DIT CBO DICBO SRFC DRFC LCOM NPM minLoc maxLoc locs</pre>
+ * where flags contains P for public classes, A for abstract classes and
+ * Q for classes whose visit exceeded its budget (- for none), and locs
+ * is a comma-separated list of method lines of code (- if empty).
+ * It is followed by a line
+ * <pre>E name coupledClass</pre>
+ * for each of the class's efferent couplings.
+ *
+ * @see ClassMetricsContainer#addVisited
+ */
+public class PartialResults {
+    /** First line of a partial results file */
+    private static final String HEADER = "# ckjm partial results 1";
+
+    /** Write the visited classes of a container to a partial results file */
+    public static void write(ClassMetricsContainer cm, File file) throws IOException {
+	try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+		new FileOutputStream(file), StandardCharsets.UTF_8)))) {
+	    out.println(HEADER);
+	    for (Map.Entry<String, ClassMetrics> e : cm.classes().entrySet()) {
+		ClassMetrics c = e.getValue();
+		if (!c.isVisited())
+		    continue;
+		String name = e.getKey();
+		StringBuilder locs = new StringBuilder();
+		for (float loc : c.locArray)
+		    locs.append(locs.length() == 0 ? "" : ",").append(loc);
+		out.println("C " + name +
+		    " " + c.getSuperClassName() +
+		    " " + (c.isPublic() ? "P" : "") + (c.isAbstract() ? "A" : "") +
+			(c.isPartial() ? "Q" : "") +
+			(c.isPublic() || c.isAbstract() || c.isPartial() ? "" : "-") +
+		    " " + c.getDit() +
+		    " " + c.getCbo() +
+		    " " + c.getDicbo() +
+		    " " + c.getSrfc() +
+		    " " + c.getDrfc() +
+		    " " + c.getLcom() +
+		    " " + c.getNpm() +
+		    " " + c.getMinLoc() +
+		    " " + c.getMaxLoc() +
+		    " " + (locs.length() == 0 ? "-" : locs));
+		for (String to : c.getEfferentCoupledClasses())
+		    out.println("E " + name + " " + to);
+	    }
+	    if (out.checkError())
+		throw new IOException("Error writing " + file);
+	}
+    }
+
+    /** Merge the classes of a partial results file into a container */
+    public static void read(ClassMetricsContainer cm, File file) throws IOException {
+	try (BufferedReader in = new BufferedReader(new InputStreamReader(
+		new FileInputStream(file), StandardCharsets.UTF_8))) {
+	    String line = in.readLine();
+	    if (!HEADER.equals(line))
+		throw new IOException(file + ": not a ckjm partial results file");
+
+	    String name = null;
+	    ClassMetrics visit = null;
+	    HashSet<String> efferent = null;
+	    int lineNumber = 1;
+	    while ((line = in.readLine()) != null) {
+		lineNumber++;
+		String[] f = line.split(" ");
+		if (f[0].equals("C") && f.length == 14) {
+		    if (name != null)
+			cm.addVisited(name, visit);
+		    name = f[1];
+		    visit = new ClassMetrics();
+		    efferent = new HashSet<String>();
+		    visit.setVisited();
+		    visit.setSuperClassName(f[2]);
+		    if (f[3].contains("P"))
+			visit.setPublic();
+		    if (f[3].contains("A"))
+			visit.setAbstract();
+		    if (f[3].contains("Q"))
+			visit.setPartial("budget exceeded in shard");
+		    visit.setDit(Integer.parseInt(f[4]));
+		    visit.setCbo(Integer.parseInt(f[5]));
+		    visit.setDicbo(Integer.parseInt(f[6]));
+		    visit.setSrfc(Integer.parseInt(f[7]));
+		    visit.setDrfc(Integer.parseInt(f[8]));
+		    visit.setLcom(Integer.parseInt(f[9]));
+		    for (int i = Integer.parseInt(f[10]); i > 0; i--)
+			visit.incNpm();
+		    visit.setMinLoc(Float.parseFloat(f[11]));
+		    visit.setMaxLoc(Float.parseFloat(f[12]));
+		    if (!f[13].equals("-"))
+			for (String loc : f[13].split(","))
+			    visit.putLocArray(Float.parseFloat(loc));
+		    visit.setEfferentCoupledClasses(efferent);
+		} else if (f[0].equals("E") && f.length == 3 && f[1].equals(name)) {
+		    efferent.add(f[2]);
+		} else
+		    throw new IOException(file + ":" + lineNumber + ": malformed line");
+	    }
+	    if (name != null)
+		cm.addVisited(name, visit);
+	}
+    }
+}
@@ -22,7 +22,7 @@ import java.io.PrintStream;
  * Simple plain text output formatter
  * @author Julien Rentrop
  */
-public class PrintPlainResults implements CkjmOutputHandler {
+public class PrintPlainResults implements CkjmOutputHandler, CkjmPackageOutputHandler {
     private PrintStream p;
 
     public PrintPlainResults (PrintStream p) {
@@ -30,6 +30,13 @@ public class PrintPlainResults implements CkjmOutputHandler {
     }
 
     public void handleClass(String name, ClassMetrics c) {
-        p.println(name + " " + c.toString());
+        p.println(name + " " + c.toString(MetricsFilter.getSelectedMetrics()) +
+            (MetricsFilter.areCyclesReported() ? " " + c.getCycle() + " " + c.getCycleSize() : "") +
+            (c.isPartial() ? " partial" : ""));
+    }
+
+    public void handlePackage(String name, PackageMetrics pm) {
+        p.println("package " + (name.isEmpty() ? "(default)" : name) + " " + pm.toString() +
+            (MetricsFilter.areCyclesReported() ? " " + pm.getCycle() + " " + pm.getCycleSize() : ""));
     }
 }
@@ -0,0 +1,168 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.util.ClassPath;
+import org.apache.bcel.util.SyntheticRepository;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Run the analysis over synthetic corpora of increasing size and report
+ * throughput, peak heap use and the time spent in each phase, so that
+ * super-linear behaviour shows up as a growing time per class.
+ * The analysis's diagnostic output is discarded while it runs.
+ * An untimed pass over the smallest corpus precedes the measurements,
+ * so that class loading and JIT compilation do not inflate the first
+ * size's time and, with it, the growth of the next.
+ * <p>
+ * Usage: ScalabilitySuite [SyntheticCorpus options] [classes ...]
+ *
+ * @see SyntheticCorpus
+ */
+public class ScalabilitySuite {
+    /** Corpus sizes used when none are specified */
+    private static final int[] DEFAULT_SIZES = { 1000, 4000, 16000, 64000 };
+    /** Growth of the time per class beyond which a step is flagged */
+    private static final double SUPERLINEAR = 1.5;
+
+    /** Stream receiving the report */
+    private PrintStream report;
+
+    public ScalabilitySuite(PrintStream report) {
+	this.report = report;
+    }
+
+    /** Analyse the corpus at each size, reporting the results */
+    public void run(SyntheticCorpus corpus, int[] sizes) throws IOException {
+	report.println("classes parse_ms visit_ms output_ms classes_per_s us_per_class peak_heap_mb growth");
+	warmUp(corpus, sizes);
+	double previous = 0;
+	for (int size : sizes) {
+	    corpus.setClasses(size);
+	    File jar = File.createTempFile("ckjm-synthetic", ".jar");
+	    jar.deleteOnExit();
+	    String[] specs = corpus.write(jar);
+	    double perClass = measure(jar, specs);
+	    report.println(previous > 0 && perClass / previous > SUPERLINEAR ?
+		String.format(" %.2f super-linear", perClass / previous) :
+		previous > 0 ? String.format(" %.2f", perClass / previous) : " -");
+	    previous = perClass;
+	    jar.delete();
+	}
+    }
+
+    /** Analyse the smallest corpus once without reporting the results */
+    private void warmUp(SyntheticCorpus corpus, int[] sizes) throws IOException {
+	int smallest = Integer.MAX_VALUE;
+	for (int size : sizes)
+	    smallest = Math.min(smallest, size);
+	corpus.setClasses(smallest);
+	File jar = File.createTempFile("ckjm-synthetic", ".jar");
+	jar.deleteOnExit();
+	analyse(jar, corpus.write(jar));
+	jar.delete();
+    }
+
+    /**
+     * Analyse the classes of a corpus jar, printing all but the growth
+     * column of its report line.
+     * Return the time per class in microseconds.
+     */
+    private double measure(File jar, String[] specs) {
+	System.gc();
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+	    if (pool.getType() == MemoryType.HEAP)
+		pool.resetPeakUsage();
+	long[] phases = analyse(jar, specs);
+	long parse = phases[0], visit = phases[1], output = phases[2];
+
+	long peak = 0;
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+	    if (pool.getType() == MemoryType.HEAP)
+		peak += pool.getPeakUsage().getUsed();
+	long total = parse + visit + output;
+	double perClass = total / 1e3 / specs.length;
+	report.printf("%d %d %d %d %.0f %.1f %d", specs.length,
+	    parse / 1000000, visit / 1000000, output / 1000000,
+	    specs.length / (total / 1e9), perClass, peak >> 20);
+	return perClass;
+    }
+
+    /**
+     * Analyse the classes of a corpus jar.
+     * Return the nanoseconds spent parsing, visiting and passing the
+     * classes to an output handler.
+     */
+    private long[] analyse(File jar, String[] specs) {
+	/* Resolve the synthetic superclasses for DIT from the corpus jar */
+	Repository.setRepository(SyntheticRepository.getInstance(
+	    new ClassPath(jar.getPath() + File.pathSeparator + ClassPath.getClassPath())));
+	PrintStream out = System.out;
+	System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	long parse = 0, visit = 0, output;
+	try {
+	    ClassMetricsContainer cm = new ClassMetricsContainer();
+	    for (String spec : specs) {
+		long start = System.nanoTime();
+		byte[] classFile = MetricsFilter.readClass(spec);
+		JavaClass jc = classFile == null ? null : MetricsFilter.parseClass(classFile, MetricsFilter.classFileName(spec));
+		long parsed = System.nanoTime();
+		if (jc != null)
+		    MetricsFilter.visitClass(cm, jc, classFile.length);
+		visit += System.nanoTime() - parsed;
+		parse += parsed - start;
+	    }
+	    long start = System.nanoTime();
+	    cm.printMetrics(new CkjmOutputHandler() {
+		public void handleClass(String name, ClassMetrics c) {
+		    c.toString();
+		}
+	    });
+	    output = System.nanoTime() - start;
+	} finally {
+	    System.setOut(out);
+	    Repository.setRepository(SyntheticRepository.getInstance());
+	}
+	return new long[] { parse, visit, output };
+    }
+
+    public static void main(String[] argv) {
+	SyntheticCorpus corpus = new SyntheticCorpus();
+	int[] sizes = DEFAULT_SIZES;
+	try {
+	    int argp = corpus.parseOptions(argv);
+	    if (argp < argv.length) {
+		sizes = new int[argv.length - argp];
+		for (int i = 0; i < sizes.length; i++)
+		    sizes[i] = SyntheticCorpus.count("classes", argv[argp + i], 1);
+	    }
+	} catch (RuntimeException e) {
+	    System.err.println("Usage: ScalabilitySuite [SyntheticCorpus options] [classes ...]");
+	    System.exit(1);
+	}
+	try {
+	    new ScalabilitySuite(System.out).run(corpus, sizes);
+	} catch (IOException e) {
+	    System.err.println("Error writing corpus: " + e);
+	    System.exit(1);
+	}
+    }
+}
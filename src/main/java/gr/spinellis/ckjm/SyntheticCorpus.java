@@ -0,0 +1,213 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generate a jar of synthetic classes with a controlled shape, for
+ * reproducing the scaling behaviour of the analysis on large inputs.
+ * <p>
+ * Class i is named synth.p&lt;i mod packages&gt;.C&lt;i&gt;.  Classes form
+ * inheritance chains of the configured depth.  Every class has the
+ * configured number of int fields and of methods; each method reads one
+ * field, the shared field f0 with the sharing probability and otherwise
+ * a field chosen by the method's number, which drives LCOM.  Each method
+ * also calls a static method of fanOut other classes; with the hub share
+ * probability the callee is one of the first hubs classes, giving them
+ * a large afferent coupling set.
+ *
+ * @see ScalabilitySuite
+ */
+public class SyntheticCorpus {
+    /** Number of classes */
+    private int classes = 1000;
+    /** Number of packages the classes are spread over */
+    private int packages = 10;
+    /** Methods per class */
+    private int methods = 10;
+    /** Fields per class */
+    private int fields = 5;
+    /** Probability a method reads the shared field */
+    private double sharing = 0.5;
+    /** Length of the inheritance chains */
+    private int depth = 3;
+    /** Classes called by each method */
+    private int fanOut = 3;
+    /** Number of hub classes */
+    private int hubs = 5;
+    /** Probability a call targets a hub class */
+    private double hubShare = 0.2;
+    /** Seed of the pseudo-random choices */
+    private long seed = 1;
+
+    public void setClasses(int n) { classes = n; }
+    public int getClasses() { return classes; }
+    public void setPackages(int n) { packages = n; }
+    public void setMethods(int n) { methods = n; }
+    public void setFields(int n) { fields = n; }
+    public void setSharing(double p) { sharing = p; }
+    public void setDepth(int n) { depth = n; }
+    public void setFanOut(int n) { fanOut = n; }
+    public void setHubs(int n) { hubs = n; }
+    public void setHubShare(double p) { hubShare = p; }
+    public void setSeed(long s) { seed = s; }
+
+    /**
+     * Set the corpus shape from command line options.
+     * The package count and the depth must be positive, the other counts
+     * non-negative and the probabilities between 0 and 1; an invalid
+     * value raises IllegalArgumentException.
+     * Return the index of the first argument that is not an option.
+     */
+    public int parseOptions(String[] argv) {
+	int argp = 0;
+	for (; argp + 1 < argv.length && argv[argp].startsWith("-"); argp += 2) {
+	    String value = argv[argp + 1];
+	    switch (argv[argp]) {
+	    case "-packages":	packages = count(argv[argp], value, 1); break;
+	    case "-methods":	methods = count(argv[argp], value, 0); break;
+	    case "-fields":	fields = count(argv[argp], value, 0); break;
+	    case "-sharing":	sharing = probability(argv[argp], value); break;
+	    case "-depth":	depth = count(argv[argp], value, 1); break;
+	    case "-fanout":	fanOut = count(argv[argp], value, 0); break;
+	    case "-hubs":	hubs = count(argv[argp], value, 0); break;
+	    case "-hubshare":	hubShare = probability(argv[argp], value); break;
+	    case "-seed":	seed = Long.parseLong(value); break;
+	    default:		throw new IllegalArgumentException(argv[argp]);
+	    }
+	}
+	return argp;
+    }
+
+    /** Parse an option's integer value, which must be at least min */
+    static int count(String option, String value, int min) {
+	int n = Integer.parseInt(value);
+	if (n < min)
+	    throw new IllegalArgumentException(option + " must be at least " + min);
+	return n;
+    }
+
+    /** Parse an option's probability value */
+    private static double probability(String option, String value) {
+	double p = Double.parseDouble(value);
+	if (!(p >= 0 && p <= 1))
+	    throw new IllegalArgumentException(option + " must be between 0 and 1");
+	return p;
+    }
+
+    /** Return the name of class i */
+    private String className(int i) {
+	return "synth.p" + (i % packages) + ".C" + i;
+    }
+
+    /**
+     * Write the corpus to a jar file.
+     * Return the class specifications of its classes, in the form
+     * MetricsFilter accepts.
+     */
+    public String[] write(File jar) throws IOException {
+	String[] specs = new String[classes];
+	Random random = new Random(seed);
+	try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jar)))) {
+	    for (int i = 0; i < classes; i++) {
+		String entry = className(i).replace('.', '/') + ".class";
+		out.putNextEntry(new JarEntry(entry));
+		out.write(generate(i, random));
+		out.closeEntry();
+		specs[i] = jar.getPath() + " " + entry;
+	    }
+	}
+	return specs;
+    }
+
+    /** Return the class file of class i */
+    private byte[] generate(int i, Random random) {
+	String name = className(i);
+	String superName = i % depth == 0 ? "java.lang.Object" : className(i - 1);
+	ClassGen cg = new ClassGen(name, superName, "C" + i + ".java",
+	    Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+	ConstantPoolGen cp = cg.getConstantPool();
+	InstructionFactory factory = new InstructionFactory(cg, cp);
+
+	for (int f = 0; f < fields; f++)
+	    cg.addField(new FieldGen(Const.ACC_PRIVATE, Type.INT, "f" + f, cp).getField());
+
+	InstructionList il = new InstructionList();
+	il.append(InstructionConst.RETURN);
+	addMethod(cg, new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.VOID, Type.NO_ARGS,
+	    new String[0], "s", name, il, cp));
+
+	for (int m = 0; m < methods; m++) {
+	    il = new InstructionList();
+	    ArrayList<InstructionHandle> lines = new ArrayList<InstructionHandle>();
+	    if (fields > 0) {
+		int f = random.nextDouble() < sharing ? 0 : m % fields;
+		lines.add(il.append(InstructionConst.ALOAD_0));
+		il.append(factory.createGetField(name, "f" + f, Type.INT));
+		il.append(InstructionConst.POP);
+	    }
+	    for (int c = 0; c < fanOut && classes > 1; c++) {
+		int target = hubs > 0 && random.nextDouble() < hubShare ?
+		    random.nextInt(Math.min(hubs, classes)) : random.nextInt(classes);
+		if (target == i)
+		    continue;
+		lines.add(il.append(factory.createInvoke(className(target), "s",
+		    Type.VOID, Type.NO_ARGS, Const.INVOKESTATIC)));
+	    }
+	    lines.add(il.append(InstructionConst.RETURN));
+	    MethodGen mg = new MethodGen(Const.ACC_PUBLIC, Type.VOID, Type.NO_ARGS,
+		new String[0], "m" + m, name, il, cp);
+	    for (int l = 0; l < lines.size(); l++)
+		mg.addLineNumber(lines.get(l), l + 1);
+	    addMethod(cg, mg);
+	}
+	return cg.getJavaClass().getBytes();
+    }
+
+    /** Complete a generated method and add it to its class */
+    private static void addMethod(ClassGen cg, MethodGen mg) {
+	mg.setMaxStack();
+	mg.setMaxLocals();
+	cg.addMethod(mg.getMethod());
+	mg.getInstructionList().dispose();
+    }
+
+    /**
+     * Generate a corpus from the command line.
+     * Usage: SyntheticCorpus [options] jar-file classes
+     */
+    public static void main(String[] argv) {
+	SyntheticCorpus corpus = new SyntheticCorpus();
+	try {
+	    int argp = corpus.parseOptions(argv);
+	    corpus.setClasses(count("classes", argv[argp + 1], 1));
+	    corpus.write(new File(argv[argp]));
+	} catch (IOException e) {
+	    System.err.println("Error writing corpus: " + e);
+	    System.exit(1);
+	} catch (RuntimeException e) {
+	    System.err.println("Usage: SyntheticCorpus [-packages n] [-methods n] [-fields n] [-sharing p]");
+	    System.err.println("       [-depth n] [-fanout n] [-hubs n] [-hubshare p] [-seed n] jar-file classes");
+	    System.exit(1);
+	}
+    }
+}
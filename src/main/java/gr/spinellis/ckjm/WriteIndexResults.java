@@ -0,0 +1,172 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package gr.spinellis.ckjm;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Output handler writing the results of a run into a persistent index
+ * that MetricsIndex can query through memory mapping.
+ * The rows are gathered as they are handled and the index is written
+ * when the handler is closed.
+ *
+ * @see MetricsIndex
+ */
+public class WriteIndexResults implements CkjmOutputHandler, Closeable {
+    /** The file to write */
+    private File file;
+    /** The reported classes, in order of arrival */
+    private ArrayList<String> rows = new ArrayList<String>();
+    /** The metric values of each reported class */
+    private ArrayList<float[]> values = new ArrayList<float[]>();
+    /** The classes that depend on each reported class */
+    private ArrayList<String[]> afferent = new ArrayList<String[]>();
+    /** The classes each reported class depends on */
+    private ArrayList<String[]> efferent = new ArrayList<String[]>();
+
+    public WriteIndexResults(File file) {
+	this.file = file;
+    }
+
+    public void handleClass(String name, ClassMetrics c) {
+	Metric[] metrics = Metric.values();
+	float[] v = new float[metrics.length];
+	for (int i = 0; i < metrics.length; i++)
+	    v[i] = metrics[i].value(c);
+	rows.add(name);
+	values.add(v);
+	afferent.add(c.getAfferentCoupledClasses().toArray(new String[0]));
+	efferent.add(c.getEfferentCoupledClasses().toArray(new String[0]));
+    }
+
+    /** Write the index file; see MetricsIndex for its layout */
+    public void close() throws IOException {
+	/* The name dictionary holds the reported and the coupled classes */
+	TreeSet<String> dictionary = new TreeSet<String>(rows);
+	for (String[] a : afferent)
+	    dictionary.addAll(Arrays.asList(a));
+	for (String[] e : efferent)
+	    dictionary.addAll(Arrays.asList(e));
+	String[] names = dictionary.toArray(new String[0]);
+	HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	for (int i = 0; i < names.length; i++)
+	    ids.put(names[i], i);
+
+	int n = names.length;
+	int r = rows.size();
+	int k = Metric.values().length;
+	int[] rowOf = new int[n];
+	Arrays.fill(rowOf, -1);
+	for (int i = 0; i < r; i++)
+	    rowOf[ids.get(rows.get(i))] = i;
+
+	try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(file), 1 << 16))) {
+	    out.writeLong(MetricsIndex.MAGIC);
+	    out.writeInt(n);
+	    out.writeInt(r);
+	    out.writeInt(k);
+
+	    /* Name dictionary: offsets followed by the UTF-8 names */
+	    byte[][] bytes = new byte[n][];
+	    int offset = 0;
+	    out.writeInt(0);
+	    for (int i = 0; i < n; i++) {
+		bytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+		offset += bytes[i].length;
+		out.writeInt(offset);
+	    }
+	    for (byte[] b : bytes)
+		out.write(b);
+	    for (; offset % 4 != 0; offset++)
+		out.writeByte(0);
+
+	    /* Metric columns, indexed by name id; NaN for unreported classes */
+	    for (int m = 0; m < k; m++)
+		for (int i = 0; i < n; i++)
+		    out.writeFloat(rowOf[i] == -1 ? Float.NaN : values.get(rowOf[i])[m]);
+
+	    /* Reported classes sorted by each metric, descending */
+	    Integer[] order = new Integer[r];
+	    for (int m = 0; m < k; m++) {
+		final int metric = m;
+		for (int i = 0; i < r; i++)
+		    order[i] = ids.get(rows.get(i));
+		Arrays.sort(order, (a, b) -> {
+		    int c = Float.compare(values.get(rowOf[b])[metric], values.get(rowOf[a])[metric]);
+		    return c != 0 ? c : Integer.compare(a, b);
+		});
+		for (int id : order)
+		    out.writeInt(id);
+	    }
+
+	    /*
+	     * The afferent lists combine each reported class's afferent
+	     * couplings with the inverted efferent lists, so that library
+	     * classes and classes left out of the report can be queried too
+	     */
+	    Pairs pairs = new Pairs();
+	    for (int i = 0; i < r; i++) {
+		int v = ids.get(rows.get(i));
+		for (String from : afferent.get(i))
+		    pairs.add(v, ids.get(from));
+		for (String to : efferent.get(i))
+		    pairs.add(ids.get(to), v);
+	    }
+	    pairs.write(out, n);
+	    pairs = new Pairs();
+	    for (int i = 0; i < r; i++) {
+		int v = ids.get(rows.get(i));
+		for (String to : efferent.get(i))
+		    pairs.add(v, ids.get(to));
+	    }
+	    pairs.write(out, n);
+	}
+    }
+
+    /** The edges of an adjacency list as source:target id pairs */
+    private static class Pairs {
+	private long[] pairs = new long[16];
+	private int count;
+
+	void add(int source, int target) {
+	    if (count == pairs.length)
+		pairs = Arrays.copyOf(pairs, 2 * count);
+	    pairs[count++] = (long)source << 32 | target;
+	}
+
+	/** Write the list as offsets followed by name ids; sorting groups and dedupes the pairs */
+	void write(DataOutputStream out, int n) throws IOException {
+	    Arrays.sort(pairs, 0, count);
+	    int[] start = new int[n + 1];
+	    int[] targets = new int[count];
+	    int unique = 0;
+	    for (int i = 0; i < count; i++) {
+		if (i > 0 && pairs[i] == pairs[i - 1])
+		    continue;
+		start[(int)(pairs[i] >>> 32) + 1]++;
+		targets[unique++] = (int)pairs[i];
+	    }
+	    for (int i = 0; i < n; i++)
+		start[i + 1] += start[i];
+	    for (int offset : start)
+		out.writeInt(offset);
+	    for (int i = 0; i < unique; i++)
+		out.writeInt(targets[i]);
+	}
+    }
+}